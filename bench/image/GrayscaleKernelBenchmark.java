@@ -0,0 +1,109 @@
+package image;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A benchmark of the GrayscaleKernels against each other: times the two operations that reduce rows of
+ * pixels to grayscale - summing an image's brightness (ImageBrightness.calculateImageBrightness) and building
+ * its integral image (the ImageIntegral constructor) - with each kernel, on the same image, and checks that
+ * both kernels give exactly the same values.
+ * <p>
+ * Each kernel is warmed up first, so the JIT has compiled (and vectorized) it, and then timed over a number
+ * of rounds; the median round is reported, as it is the least sensitive to the noise of other processes.
+ * It is in the image package, so it is compiled together with the src directory:
+ * <pre>
+ *     javac -d out -sourcepath src bench/image/GrayscaleKernelBenchmark.java
+ *     java -cp out image.GrayscaleKernelBenchmark cat.jpeg [rounds]
+ * </pre>
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class GrayscaleKernelBenchmark {
+    private static final int IMAGE_PATH_ARGS_INDEX = 0;
+    private static final int ROUNDS_ARGS_INDEX = 1;
+    private static final int DEFAULT_ROUNDS = 21;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final String USAGE_MESSAGE = "Usage: GrayscaleKernelBenchmark <image path> [rounds]";
+    private static final String RESULT_FORMAT = "%-11s brightness %8.3f ms, integral %8.3f ms%n";
+    private static final String MISMATCH_MESSAGE = "Values differ from the first kernel's with ";
+
+    /**
+     * Times both kernels on the image, and prints the median time of each operation with each kernel.
+     *
+     * @param args the path to the image, and optionally the number of timed rounds.
+     * @throws IOException if the image could not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length <= IMAGE_PATH_ARGS_INDEX) {
+            System.out.println(USAGE_MESSAGE);
+            return;
+        }
+        int rounds = args.length > ROUNDS_ARGS_INDEX ?
+                Integer.parseInt(args[ROUNDS_ARGS_INDEX]) : DEFAULT_ROUNDS;
+        Image image = new Image(args[IMAGE_PATH_ARGS_INDEX]);
+
+        GrayscaleKernel originalKernel = ImageBrightness.getGrayscaleKernel();
+        double[] brightnesses = new double[GrayscaleKernel.values().length];
+        double[][] integralRowSums = new double[GrayscaleKernel.values().length][];
+        try {
+            for (GrayscaleKernel kernel : GrayscaleKernel.values()) {
+                ImageBrightness.setGrayscaleKernel(kernel);
+                brightnesses[kernel.ordinal()] = ImageBrightness.calculateImageBrightness(image);
+                integralRowSums[kernel.ordinal()] = getRowSums(new ImageIntegral(image));
+
+                for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                    timeBrightness(image);
+                    timeIntegral(image);
+                }
+                long[] brightnessNanos = new long[rounds];
+                long[] integralNanos = new long[rounds];
+                for (int round = 0; round < rounds; round++) {
+                    brightnessNanos[round] = timeBrightness(image);
+                    integralNanos[round] = timeIntegral(image);
+                }
+                System.out.printf(RESULT_FORMAT, kernel, median(brightnessNanos) / NANOS_PER_MILLI,
+                        median(integralNanos) / NANOS_PER_MILLI);
+            }
+        } finally {
+            ImageBrightness.setGrayscaleKernel(originalKernel);
+        }
+
+        for (int i = 1; i < brightnesses.length; i++) {
+            if (brightnesses[i] != brightnesses[0]
+                    || !Arrays.equals(integralRowSums[i], integralRowSums[0])) {
+                System.out.println(MISMATCH_MESSAGE + GrayscaleKernel.values()[i]);
+            }
+        }
+    }
+
+    // Times a calculation of the image's brightness with the current kernel, in nanoseconds
+    private static long timeBrightness(Image image) {
+        long startNanos = System.nanoTime();
+        ImageBrightness.calculateImageBrightness(image);
+        return System.nanoTime() - startNanos;
+    }
+
+    // Times a construction of the image's integral image with the current kernel, in nanoseconds
+    private static long timeIntegral(Image image) {
+        long startNanos = System.nanoTime();
+        new ImageIntegral(image);
+        return System.nanoTime() - startNanos;
+    }
+
+    // The sums of the grayscale values of each of the integral image's rows
+    private static double[] getRowSums(ImageIntegral integral) {
+        double[] rowSums = new double[integral.getHeight()];
+        for (int row = 0; row < rowSums.length; row++) {
+            rowSums[row] = integral.getRegionSum(row, 0, 1, integral.getWidth());
+        }
+        return rowSums;
+    }
+
+    // The median of the timings (sorting them in place)
+    private static long median(long[] nanos) {
+        Arrays.sort(nanos);
+        return nanos[nanos.length / 2];
+    }
+}
@@ -1,8 +1,21 @@
 package ascii_art;
 
+import ascii_output.ColorAsciiOutput;
+import ascii_output.StreamingAsciiOutput;
 import image.*;
 import image_char_matching.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 
 /**
  * The class responsible for running the algorithm of converting an image to an Ascii Art.
@@ -12,15 +25,71 @@ import image_char_matching.*;
  * 3. calculates for each sub-image its brightness
  * 4. matches an ascii char for the calculated brightness.
  * <p>
+ * Sub-image brightnesses are read from an integral image (summed-area table) of the image, so each one
+ * costs four lookups no matter how large the sub-image is. The integral image is built once per loaded
+ * image and can be shared by the algorithms of all resolutions. Padding is never materialized - the
+ * padded division's cells over the padding are simply read as white.
+ * <p>
  * Each algorithm instance is supplied with a memento object for communication with the Shell, and for
- * storing the last run's sub-image brightnesses, that way - some repeated calculations can be avoided.
+ * caching the sub-images brightnesses of the grids it has run (per image, as compact BrightnessGrids, whose
+ * fixed-point precision bound is far below the brightness gaps between chars), that way - some repeated
+ * calculations can be avoided. When the next "res up" would divide every sub-image to 2x2 sub-images, the
+ * algorithm calculates that finer grid along with its own (unless the memento holds it already), so "res up"
+ * is then served by the memento. Every grid is calculated from the integral image itself - never derived from
+ * another grid's rounded brightnesses - so the art of a grid never depends on the grids run before it.
+ * <p>
+ * Matching by brightness is done per brightness level rather than per sub-image: the sub-images brightnesses
+ * are quantized to a BrightnessHistogram, each distinct level is matched with a char once (per round type),
+ * and the chars are mapped back to the sub-images. Only a level whose brightnesses are matched with several
+ * chars is matched per sub-image, so the result is identical to matching every sub-image on its own.
+ * <p>
+ * The art can also be rendered for all round types at once (see runAllRoundTypes): each sub-image's
+ * brightness is then calculated once, and matched under each round type from the matcher's per-round-type
+ * tables.
+ * <p>
+ * The art can also be streamed to an output row by row (see run(StreamingAsciiOutput)), without building the
+ * char table: each row is written once it is matched, and if the memento misses, the brightnesses are
+ * calculated a block of rows at a time, so the first row is written long before the last is calculated.
+ * <p>
+ * Streamed art can also be colored (see setColorIntegral): if the output is a ColorAsciiOutput, each row is
+ * written with the mean colors of its sub-images, which are read from an integral image of the image's color
+ * channels. Colors are calculated row by row as they are written, on the first colored run, and are kept
+ * by the algorithm for its later colored runs (they are not stored in the memento), so a colored frame is
+ * then no more expensive to produce than a monochrome one.
+ * <p>
+ * Sub-images are matched by brightness alone, or - with the SHAPE matching method - by their shapes too:
+ * each sub-image's shape mask is built from the brightnesses of its SHAPE_MASK_SIZE x SHAPE_MASK_SIZE
+ * blocks, which are read from the same integral image. Cells smaller than SHAPE_MASK_SIZE pixels are matched
+ * by brightness even then: their blocks would be smaller than a pixel, so the mask would add little beyond
+ * the brightness, at about 4 to 15 times its cost.
+ * <p>
+ * With a parallelism level above 1, large grids are split to bands of rows that are processed by a
+ * fork/join pool. Every cell is computed exactly as in the sequential run, so the output is identical. The
+ * pool of each parallelism level is created once and shared by all algorithms (its worker threads are
+ * daemons, and retire on their own when idle), so bands cost no thread start-ups - not even for the many
+ * small blocks of a streamed run.
  *
  * @author Or Tarazi, Agam Hershko
  */
 public class AsciiArtAlgorithm {
+    private static final int SEQUENTIAL_PARALLELISM = 1;
+    private static final int MIN_CELLS_FOR_PARALLEL_RUN = 1 << 14; // smaller grids aren't worth the overhead
+    private static final int ROW_BANDS_PER_THREAD = 4; // some slack for balancing uneven bands
+    private static final int RESOLUTION_SCALE_FACTOR = 2;
+    private static final int STREAMED_CELLS_PER_PARALLEL_BLOCK = MIN_CELLS_FOR_PARALLEL_RUN;
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>(); // by parallelism
+    private static final int UNMATCHED_LEVEL = -2; // a level not matched with a char yet (see matchLevels)
+
     private final SubImgCharMatcher charMatcher;
     private final BrightnessMemento brightnessMemento;
-    private final Image[][] subImages;
+    private final ImageIntegral imageIntegral;
+    private final SubImageGrid subImageGrid;
+    private final SubImageGrid refinedGrid; // the next "res up" grid, calculated along on a miss (or null)
+    private int parallelism = SEQUENTIAL_PARALLELISM;
+    private MatchingMethod matchingMethod = MatchingMethod.BRIGHTNESS;
+    private ImageColorIntegral colorIntegral; // null for monochrome art
+    private int[] gridColors; // the sub-images colors, row by row, once a colored run has calculated them
+    private ImageColorIntegral gridColorsIntegral; // the integral image gridColors were calculated from
 
 
     /**
@@ -33,54 +102,558 @@ public class AsciiArtAlgorithm {
      * @param charMatcher the character matcher responsible for mapping brightness values to ASCII characters.
      * @param resolution  the resolution of the ASCII art, representing the number of image pixels
      *                    mapped to a single ASCII character in both dimensions.
-     * @param memento     The memento object for restoring last run's sub-image brightnesses
+     * @param memento     The memento object for restoring earlier runs' sub-image brightnesses
      */
     public AsciiArtAlgorithm(Image image,
                              BrightnessMemento memento,
                              SubImgCharMatcher charMatcher,
                              int resolution) {
+        this(new ImageIntegral(image), memento, charMatcher, resolution, ResolutionMode.PADDED);
+    }
+
+    /**
+     * Constructs a new `AsciiArtAlgorithm` instance over an already built integral image of the input image,
+     * so that changing the resolution does not require another pass over the image's pixels.
+     *
+     * @param imageIntegral  the integral image of the (unpadded) input image.
+     * @param charMatcher    the character matcher responsible for mapping brightness values to ASCII
+     *                       characters.
+     * @param resolution     the resolution of the ASCII art, representing the number of ASCII characters
+     *                       in a single row.
+     * @param resolutionMode whether to pad the image to powers of two, or divide it to exactly `resolution`
+     *                       columns as is.
+     * @param memento        The memento object for restoring earlier runs' sub-image brightnesses
+     */
+    public AsciiArtAlgorithm(ImageIntegral imageIntegral,
+                             BrightnessMemento memento,
+                             SubImgCharMatcher charMatcher,
+                             int resolution,
+                             ResolutionMode resolutionMode) {
         this.charMatcher = charMatcher;
         this.brightnessMemento = memento;
-        Image paddedImage = ImagePadding.padImage(image);
-        this.subImages = ImageDivision.divideToImages(paddedImage, resolution);
+        this.imageIntegral = imageIntegral;
+        this.subImageGrid = divideToGrid(imageIntegral, resolution, resolutionMode);
+
+        // calculate the next "res up" grid along with this one, if it divides every sub-image to 2x2
+        int upscaledResolution = resolution * RESOLUTION_SCALE_FACTOR;
+        SubImageGrid refinedGrid = this.subImageGrid.getRefinedGrid();
+        boolean isRefinedGridUsed = upscaledResolution <= imageIntegral.getWidth() &&
+                refinedGrid.equals(divideToGrid(imageIntegral, upscaledResolution, resolutionMode));
+        this.refinedGrid = isRefinedGridUsed ? refinedGrid : null;
+    }
+
+    /**
+     * Describes the division of the image for the given resolution, in the given mode.
+     *
+     * @param imageIntegral  the integral image of the (unpadded) input image.
+     * @param resolution     the number of sub-images in a single row.
+     * @param resolutionMode whether to pad the image to powers of two, or divide it as is.
+     * @return the grid of sub-images.
+     */
+    private static SubImageGrid divideToGrid(ImageIntegral imageIntegral, int resolution,
+                                             ResolutionMode resolutionMode) {
+        return switch (resolutionMode) {
+            case PADDED -> ImageDivision.divideToPaddedGrid(
+                    imageIntegral.getWidth(), imageIntegral.getHeight(), resolution);
+            case EXACT -> ImageDivision.divideToExactGrid(
+                    imageIntegral.getWidth(), imageIntegral.getHeight(), resolution);
+        };
     }
 
 
     /**
-     * runs the algorithm from start to finish. Takes advantage of previous runs with same parameters, and
-     * when calculates brightnesses of sub-images, stores them in a memento-like class so it could be
-     * easily restored for later run on same parameters (can only keep the last run's brightnesses)
+     * Sets the number of threads the algorithm may use. Grids that are too small to benefit from
+     * parallelism are always processed sequentially.
+     *
+     * @param parallelism the number of threads to use, 1 for a sequential run.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(SEQUENTIAL_PARALLELISM, parallelism);
+    }
+
+    /**
+     * Sets the method of matching sub-images with chars: by brightness alone (the default), or by shape too
+     * (for grids whose cells are at least SHAPE_MASK_SIZE pixels on each side).
+     *
+     * @param matchingMethod the matching method to use.
+     */
+    public void setMatchingMethod(MatchingMethod matchingMethod) {
+        this.matchingMethod = matchingMethod;
+    }
+
+    /**
+     * Sets the integral image of the input image's colors, to color the art streamed to outputs that support
+     * colors with. Other outputs, and the char tables returned by run(), are not affected.
+     *
+     * @param colorIntegral the integral image of the (unpadded) input image's colors, or null for
+     *                      monochrome art.
+     */
+    public void setColorIntegral(ImageColorIntegral colorIntegral) {
+        this.colorIntegral = colorIntegral;
+    }
+
+    /**
+     * runs the algorithm from start to finish. Takes advantage of previous runs, and when calculates the
+     * grayscale sums of sub-images, stores them in a memento-like class so they could be easily restored
+     * for later runs of the same grid.
      *
      * @return a char table of the ascii art
      */
     public char[][] run() {
-        char[][] asciiImg = new char[this.subImages.length][this.subImages[0].length];
-        double[][] newBrightnessMap = new double[this.subImages.length][this.subImages[0].length];
-
-        for (int row = 0; row < this.subImages.length; row++) {
-            for (int col = 0; col < this.subImages[row].length; col++) {
-                double brightness;
-
-                // if the algorithm can avoid unnecessary re-calculation of sub-image brightnesses:
-                if (this.brightnessMemento.isLastStateValid() &&
-                        this.brightnessMemento.restoreState() != null) {
-                    brightness = this.brightnessMemento.restoreState()[row][col];
-                } else { // if the resolution has changed and the algorithm has to re-calculate:
-                    brightness = ImageBrightness.calculateImageBrightness(this.subImages[row][col]);
-                    newBrightnessMap[row][col] = brightness;
+        return this.run(new RoundType[]{this.charMatcher.getRoundType()})[0];
+    }
+
+    /**
+     * runs the algorithm from start to finish like run(), but streams the ascii art to an output row by row
+     * instead of returning it - each row is written as soon as it is matched, and the full char table is
+     * never built. If the memento misses, the sub-images brightnesses are calculated a block of rows at a
+     * time (a single row, or - if the algorithm may use several threads - enough rows to be worth splitting
+     * between them), and each block's rows are written before the next block is calculated. The brightnesses
+     * are stored in the memento once all rows are calculated, like in run().
+     * As in run(), each distinct brightness level is matched with a char once: if the memento hits, through
+     * the histogram of the whole grid; otherwise each block's sub-images are quantized to levels as they are
+     * calculated, and a level is matched the first time it is met.
+     * If a color integral image is set and the output is a ColorAsciiOutput, the art is output colored.
+     *
+     * @param output the output to stream the ascii art to.
+     */
+    public void run(StreamingAsciiOutput output) {
+        int rows = this.subImageGrid.getRows();
+        int cols = this.subImageGrid.getCols();
+        RoundType roundType = this.charMatcher.getRoundType();
+        char[] asciiRow = new char[cols];
+        boolean isShapeMatched = this.isShapeMatched();
+        double[] blockSums =
+                new double[SubImgCharMatcher.SHAPE_MASK_SIZE * SubImgCharMatcher.SHAPE_MASK_SIZE];
+        ColorAsciiOutput colorOutput = null;
+        int[] colorRow = null;
+        int[] gridColors = this.gridColors;
+        boolean isColorsCalculated = gridColors != null && this.gridColorsIntegral == this.colorIntegral;
+        if (this.colorIntegral != null && output instanceof ColorAsciiOutput) {
+            colorOutput = (ColorAsciiOutput) output;
+            colorRow = new int[cols];
+            if (!isColorsCalculated) {
+                gridColors = new int[rows * cols];
+            }
+            colorOutput.beginColored(rows, cols);
+        } else {
+            output.begin(rows, cols);
+        }
+
+        BrightnessGrid brightnessMap =
+                this.brightnessMemento.restoreState(this.imageIntegral, this.subImageGrid);
+        boolean isCalculated = brightnessMap == null;
+        BrightnessGrid refinedMap = null;
+        BrightnessHistogram histogram = null;
+        int[] levelChars = newLevelChars();
+        int blockRows = rows;
+        if (isCalculated) {
+            brightnessMap = new BrightnessGrid(rows, cols);
+            refinedMap = this.newRefinedMap();
+            int calculatedCols = Math.max(1, refinedMap == null ? cols :
+                    cols + RESOLUTION_SCALE_FACTOR * this.refinedGrid.getCols());
+            blockRows = this.parallelism <= SEQUENTIAL_PARALLELISM ? 1 :
+                    Math.max(1, STREAMED_CELLS_PER_PARALLEL_BLOCK / calculatedCols);
+        } else if (!isShapeMatched) {
+            histogram = new BrightnessHistogram(brightnessMap);
+            this.matchLevels(histogram, roundType, levelChars);
+        }
+
+        for (int blockStart = 0; blockStart < rows; blockStart += blockRows) {
+            int blockEnd = Math.min(rows, blockStart + blockRows);
+            if (isCalculated) {
+                this.calculateRows(blockStart, blockEnd, brightnessMap, refinedMap);
+            }
+            for (int row = blockStart; row < blockEnd; row++) {
+                if (isShapeMatched) {
+                    this.matchShapeRow(row, brightnessMap, blockSums, asciiRow);
+                } else if (histogram != null) {
+                    this.mapLevelsRow(row, histogram, brightnessMap, roundType, levelChars, asciiRow);
+                } else {
+                    this.matchQuantizedRow(row, brightnessMap, roundType, levelChars, asciiRow);
                 }
+                if (colorOutput != null) {
+                    if (!isColorsCalculated) {
+                        this.calculateColorRow(row, gridColors);
+                    }
+                    System.arraycopy(gridColors, row * cols, colorRow, 0, cols);
+                    colorOutput.row(asciiRow, colorRow);
+                } else {
+                    output.row(asciiRow);
+                }
+            }
+        }
+
+        if (isCalculated) {
+            this.saveCalculated(brightnessMap, refinedMap);
+        }
+        if (colorOutput != null) {
+            this.gridColors = gridColors; // kept only once all rows are calculated
+            this.gridColorsIntegral = this.colorIntegral;
+        }
+        output.end();
+    }
+
+    /**
+     * runs the algorithm from start to finish for every round type, in a single pass over the sub-images
+     * brightnesses - as cheap as a single run, apart from writing the extra char tables.
+     *
+     * @return a char table of the ascii art for each round type.
+     */
+    public Map<RoundType, char[][]> runAllRoundTypes() {
+        RoundType[] roundTypes = RoundType.values();
+        char[][][] asciiImgs = this.run(roundTypes);
+        Map<RoundType, char[][]> asciiImgsByRoundType = new EnumMap<>(RoundType.class);
+        for (int i = 0; i < roundTypes.length; i++) {
+            asciiImgsByRoundType.put(roundTypes[i], asciiImgs[i]);
+        }
+        return asciiImgsByRoundType;
+    }
+
+    /**
+     * runs the algorithm for the given round types, matching each sub-image brightness under all of them.
+     *
+     * @param roundTypes the round types to match by.
+     * @return a char table of the ascii art for each round type, in the same order.
+     */
+    private char[][][] run(RoundType[] roundTypes) {
+        int rows = this.subImageGrid.getRows();
+        int cols = this.subImageGrid.getCols();
+        char[][][] asciiImgs = new char[roundTypes.length][rows][cols];
+
+        BrightnessGrid brightnessMap = this.getBrightnesses();
+        if (this.isShapeMatched()) {
+            this.runRowBands(rows, cols, (startRow, endRow) ->
+                    this.matchShapeRowBand(startRow, endRow, brightnessMap, asciiImgs));
+            return asciiImgs;
+        }
+
+        // match each distinct brightness level once, and map the chars back to the sub-images
+        BrightnessHistogram histogram = new BrightnessHistogram(brightnessMap);
+        int[][] levelChars = new int[roundTypes.length][];
+        for (int round = 0; round < roundTypes.length; round++) {
+            levelChars[round] = newLevelChars();
+            this.matchLevels(histogram, roundTypes[round], levelChars[round]);
+        }
+        this.runRowBands(rows, cols, (startRow, endRow) -> this.mapLevelsRowBand(
+                startRow, endRow, histogram, brightnessMap, roundTypes, levelChars, asciiImgs));
+        return asciiImgs;
+    }
+
+    // Checks if sub-images are matched by shape: with the SHAPE method, if every block of a cell's shape mask
+    // covers at least a pixel
+    private boolean isShapeMatched() {
+        return this.matchingMethod == MatchingMethod.SHAPE &&
+                this.subImageGrid.getCellHeight() >= SubImgCharMatcher.SHAPE_MASK_SIZE &&
+                this.subImageGrid.getCellWidth() >= SubImgCharMatcher.SHAPE_MASK_SIZE;
+    }
+
+    /**
+     * Builds the histogram of the sub-images brightnesses, for the current grid - restoring the sub-images
+     * brightnesses from the memento, or calculating them.
+     *
+     * @return the brightness histogram of the sub-images.
+     */
+    public BrightnessHistogram getBrightnessHistogram() {
+        return new BrightnessHistogram(this.getBrightnesses());
+    }
+
+    /**
+     * Matches each distinct level of a brightness histogram with a char, under a round type.
+     *
+     * @param histogram  the brightness histogram of the sub-images.
+     * @param roundType  the round type to match by.
+     * @param levelChars the table to fill with the char of each level that has sub-images in it, by level -
+     *                   or MIXED_RANGE for a level whose brightnesses are matched with several chars (see
+     *                   newLevelChars).
+     */
+    private void matchLevels(BrightnessHistogram histogram, RoundType roundType, int[] levelChars) {
+        for (int level : histogram.getDistinctLevels()) {
+            levelChars[level] = this.matchLevel(level, roundType);
+        }
+    }
+
+    // Matches a brightness level with a char, or with MIXED_RANGE if its brightnesses match several chars
+    private int matchLevel(int level, RoundType roundType) {
+        return this.charMatcher.getCharByImageBrightnessRange(
+                BrightnessHistogram.getLevelStart(level), BrightnessHistogram.getLevelEnd(level), roundType);
+    }
+
+    // A table of the char of each brightness level, with no level matched yet
+    private static int[] newLevelChars() {
+        int[] levelChars = new int[BrightnessHistogram.LEVELS];
+        Arrays.fill(levelChars, UNMATCHED_LEVEL);
+        return levelChars;
+    }
+
+    /**
+     * Restores the brightnesses of the sub-images from the memento, or - if the grid has not been
+     * calculated before - calculates them (along with the refined grid's brightnesses) and stores them in the
+     * memento.
+     *
+     * @return the sub-images brightnesses.
+     */
+    private BrightnessGrid getBrightnesses() {
+        // if the algorithm can avoid unnecessary re-calculation of sub-image brightnesses:
+        BrightnessGrid brightnessMap =
+                this.brightnessMemento.restoreState(this.imageIntegral, this.subImageGrid);
+        if (brightnessMap == null) {
+            // the grid has not been calculated before - calculate it (and its refined grid) and store it
+            brightnessMap = new BrightnessGrid(this.subImageGrid.getRows(), this.subImageGrid.getCols());
+            BrightnessGrid refinedMap = this.newRefinedMap();
+            this.calculateRows(0, this.subImageGrid.getRows(), brightnessMap, refinedMap);
+            this.saveCalculated(brightnessMap, refinedMap);
+        }
+
+        return brightnessMap;
+    }
+
+    /**
+     * Returns the brightnesses table to fill for the refined grid when the grid itself is calculated.
+     *
+     * @return a new table of the refined grid's size, or null if there is no refined grid or the memento
+     * holds its brightnesses already.
+     */
+    private BrightnessGrid newRefinedMap() {
+        if (this.refinedGrid == null ||
+                this.brightnessMemento.containsState(this.imageIntegral, this.refinedGrid)) {
+            return null;
+        }
+        return new BrightnessGrid(this.refinedGrid.getRows(), this.refinedGrid.getCols());
+    }
+
+    /**
+     * Calculates the brightnesses of a band of rows of the grid, and - if the refined grid is calculated
+     * too - of the refined grid's rows the band covers.
+     *
+     * @param startRow      the first row of the band.
+     * @param endRow        the row right after the last row of the band.
+     * @param brightnessMap the grid's brightnesses to fill.
+     * @param refinedMap    the refined grid's brightnesses to fill, or null (see newRefinedMap).
+     */
+    private void calculateRows(int startRow, int endRow, BrightnessGrid brightnessMap,
+                               BrightnessGrid refinedMap) {
+        this.runRowBands(endRow - startRow, this.subImageGrid.getCols(),
+                (bandStartRow, bandEndRow) -> this.calculateRowBand(this.subImageGrid,
+                        startRow + bandStartRow, startRow + bandEndRow, brightnessMap));
+        if (refinedMap != null) {
+            int refinedStartRow = startRow * RESOLUTION_SCALE_FACTOR;
+            this.runRowBands((endRow - startRow) * RESOLUTION_SCALE_FACTOR, this.refinedGrid.getCols(),
+                    (bandStartRow, bandEndRow) -> this.calculateRowBand(this.refinedGrid,
+                            refinedStartRow + bandStartRow, refinedStartRow + bandEndRow, refinedMap));
+        }
+    }
+
+    /**
+     * Stores newly calculated brightnesses in the memento: the refined grid's, if calculated, and then the
+     * grid's own (so the grid's are the most recently used).
+     *
+     * @param brightnessMap the grid's brightnesses.
+     * @param refinedMap    the refined grid's brightnesses, or null if not calculated.
+     */
+    private void saveCalculated(BrightnessGrid brightnessMap, BrightnessGrid refinedMap) {
+        if (refinedMap != null) {
+            this.brightnessMemento.saveState(this.imageIntegral, this.refinedGrid, refinedMap);
+        }
+        this.brightnessMemento.saveState(this.imageIntegral, this.subImageGrid, brightnessMap);
+    }
+
+    /**
+     * Runs a task over the rows of a grid: sequentially, or - if the algorithm may use several threads and
+     * the grid is large enough - split to bands of consecutive rows that are run on a fork/join pool of the
+     * algorithm's parallelism level. Returns once all bands are done.
+     *
+     * @param rows    the number of rows of the grid.
+     * @param cols    the number of columns of the grid.
+     * @param rowBand the task to run over each band of rows.
+     */
+    private void runRowBands(int rows, int cols, RowBandTask rowBand) {
+        if (this.parallelism <= SEQUENTIAL_PARALLELISM || (long) rows * cols < MIN_CELLS_FOR_PARALLEL_RUN) {
+            rowBand.run(0, rows);
+            return;
+        }
+
+        int bandsNumber = Math.min(rows, this.parallelism * ROW_BANDS_PER_THREAD);
+        List<Callable<Void>> bands = new ArrayList<>(bandsNumber);
+        for (int band = 0; band < bandsNumber; band++) {
+            int startRow = (int) ((long) rows * band / bandsNumber);
+            int endRow = (int) ((long) rows * (band + 1) / bandsNumber);
+            bands.add(() -> {
+                rowBand.run(startRow, endRow);
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = POOLS.computeIfAbsent(this.parallelism, ForkJoinPool::new);
+        try {
+            for (Future<Void> result : pool.invokeAll(bands)) {
+                result.get(); // rethrows anything a band has thrown
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calculates the brightnesses of the sub-images of a grid, in a band of rows.
+     *
+     * @param grid          the grid whose sub-images to calculate.
+     * @param startRow      the first row of the band.
+     * @param endRow        the row right after the last row of the band.
+     * @param brightnessMap the sub-image brightnesses to fill.
+     */
+    private void calculateRowBand(SubImageGrid grid, int startRow, int endRow, BrightnessGrid brightnessMap) {
+        for (int row = startRow; row < endRow; row++) {
+            for (int col = 0; col < brightnessMap.getCols(); col++) {
+                brightnessMap.setBrightness(row, col, this.imageIntegral.getRegionBrightness(
+                        grid.getCellTop(row), grid.getCellLeft(col),
+                        grid.getCellHeight(), grid.getCellWidth()));
+            }
+        }
+    }
+
+    /**
+     * Calculates the mean colors of the sub-images in a row.
+     *
+     * @param row        the row to calculate.
+     * @param gridColors the sub-images colors to fill, row by row, packed as 0xRRGGBB.
+     */
+    private void calculateColorRow(int row, int[] gridColors) {
+        int cols = this.subImageGrid.getCols();
+        for (int col = 0; col < cols; col++) {
+            gridColors[row * cols + col] = this.colorIntegral.getRegionColor(
+                    this.subImageGrid.getCellTop(row), this.subImageGrid.getCellLeft(col),
+                    this.subImageGrid.getCellHeight(), this.subImageGrid.getCellWidth());
+        }
+    }
+
+    /**
+     * Maps the chars matched with the brightness levels back to the sub-images in a band of rows, for each
+     * round type. A sub-image whose level is matched with several chars is matched on its own.
+     *
+     * @param startRow      the first row of the band.
+     * @param endRow        the row right after the last row of the band.
+     * @param histogram     the brightness histogram of the sub-images.
+     * @param brightnessMap the sub-image brightnesses the histogram was built from.
+     * @param roundTypes    the round types to match by.
+     * @param levelChars    the chars matched with the levels, for each round type (see matchLevels).
+     * @param asciiImgs     the char table of each round type to fill.
+     */
+    private void mapLevelsRowBand(int startRow, int endRow, BrightnessHistogram histogram,
+                                  BrightnessGrid brightnessMap, RoundType[] roundTypes, int[][] levelChars,
+                                  char[][][] asciiImgs) {
+        for (int row = startRow; row < endRow; row++) {
+            for (int round = 0; round < roundTypes.length; round++) {
+                this.mapLevelsRow(row, histogram, brightnessMap, roundTypes[round], levelChars[round],
+                        asciiImgs[round][row]);
+            }
+        }
+    }
+
+    /**
+     * Maps the chars matched with the brightness levels back to the sub-images in a row, under a round type.
+     * A sub-image whose level is matched with several chars is matched on its own.
+     *
+     * @param row           the row to map.
+     * @param histogram     the brightness histogram of the sub-images.
+     * @param brightnessMap the sub-image brightnesses the histogram was built from.
+     * @param roundType     the round type to match by.
+     * @param levelChars    the chars matched with the levels (see matchLevels).
+     * @param asciiRow      the row's chars to fill.
+     */
+    private void mapLevelsRow(int row, BrightnessHistogram histogram, BrightnessGrid brightnessMap,
+                              RoundType roundType, int[] levelChars, char[] asciiRow) {
+        for (int col = 0; col < asciiRow.length; col++) {
+            int levelChar = levelChars[histogram.getCellLevel(row, col)];
+            if (levelChar == SubImgCharMatcher.MIXED_RANGE) {
+                levelChar = this.charMatcher.getCharByImageBrightness(
+                        brightnessMap.getBrightness(row, col), roundType);
+            }
+            asciiRow[col] = (char) levelChar;
+        }
+    }
 
-                // either way, get the char for the given brightness
-                asciiImg[row][col] = this.charMatcher.getCharByImageBrightness(brightness);
+    /**
+     * Matches each of the sub-images in a band of rows with a char by shape too. Shape matching does not
+     * depend on the round type, so the same char is written to the char tables of all round types.
+     *
+     * @param startRow      the first row of the band.
+     * @param endRow        the row right after the last row of the band.
+     * @param brightnessMap the sub-image brightnesses to read from.
+     * @param asciiImgs     the char table of each round type to fill.
+     */
+    private void matchShapeRowBand(int startRow, int endRow, BrightnessGrid brightnessMap,
+                                   char[][][] asciiImgs) {
+        double[] blockSums =
+                new double[SubImgCharMatcher.SHAPE_MASK_SIZE * SubImgCharMatcher.SHAPE_MASK_SIZE];
+        for (int row = startRow; row < endRow; row++) {
+            this.matchShapeRow(row, brightnessMap, blockSums, asciiImgs[0][row]);
+            for (int round = 1; round < asciiImgs.length; round++) {
+                System.arraycopy(asciiImgs[0][row], 0, asciiImgs[round][row], 0, asciiImgs[0][row].length);
             }
         }
+    }
 
-        // if sub-image brightness re-calculations were made, save them and set them as 'valid' for next run:
-        if (!(this.brightnessMemento.isLastStateValid() && this.brightnessMemento.restoreState() != null)) {
-            this.brightnessMemento.saveState(newBrightnessMap); // store the brightnesses in memento
-            this.brightnessMemento.setLastStateValidity(true); // unless was toggled by Shell, can use later.
+    /**
+     * Matches each of the sub-images in a row with a char by shape too.
+     *
+     * @param row           the row to match.
+     * @param brightnessMap the sub-image brightnesses to read from.
+     * @param blockSums     an array to calculate each sub-image's block sums in (see
+     *                      ImageIntegral.getSubRegionSums).
+     * @param asciiRow      the row's chars to fill.
+     */
+    private void matchShapeRow(int row, BrightnessGrid brightnessMap, double[] blockSums, char[] asciiRow) {
+        for (int col = 0; col < asciiRow.length; col++) {
+            this.imageIntegral.getSubRegionSums(
+                    this.subImageGrid.getCellTop(row), this.subImageGrid.getCellLeft(col),
+                    this.subImageGrid.getCellHeight(), this.subImageGrid.getCellWidth(),
+                    SubImgCharMatcher.SHAPE_MASK_SIZE, blockSums);
+            asciiRow[col] = this.charMatcher.getCharByImageShape(
+                    brightnessMap.getBrightness(row, col), SubImgCharMatcher.getShapeMask(blockSums));
         }
+    }
 
-        return asciiImg;
+    /**
+     * Matches each of the sub-images in a row with a char by its brightness level - for rows that are matched
+     * before the brightnesses of the whole grid are known. Each sub-image is quantized to its level, and a
+     * level is matched with a char the first time it is met, in this row or in an earlier one.
+     *
+     * @param row           the row to match.
+     * @param brightnessMap the sub-image brightnesses to read from.
+     * @param roundType     the round type to match by.
+     * @param levelChars    the chars matched with the levels so far, to read from and add to (see
+     *                      newLevelChars).
+     * @param asciiRow      the row's chars to fill.
+     */
+    private void matchQuantizedRow(int row, BrightnessGrid brightnessMap, RoundType roundType,
+                                   int[] levelChars, char[] asciiRow) {
+        for (int col = 0; col < asciiRow.length; col++) {
+            int level = BrightnessHistogram.getCellLevel(brightnessMap, row, col);
+            int levelChar = levelChars[level];
+            if (levelChar == UNMATCHED_LEVEL) {
+                levelChar = this.matchLevel(level, roundType);
+                levelChars[level] = levelChar;
+            }
+            if (levelChar == SubImgCharMatcher.MIXED_RANGE) {
+                levelChar = this.charMatcher.getCharByImageBrightness(
+                        brightnessMap.getBrightness(row, col), roundType);
+            }
+            asciiRow[col] = (char) levelChar;
+        }
+    }
+
+    /**
+     * A task run over a band of consecutive rows of a grid.
+     */
+    @FunctionalInterface
+    private interface RowBandTask {
+        /**
+         * Runs the task over a band of rows.
+         *
+         * @param startRow the first row of the band.
+         * @param endRow   the row right after the last row of the band.
+         */
+        void run(int startRow, int endRow);
     }
 }
@@ -0,0 +1,107 @@
+package ascii_art;
+
+/**
+ * A grid of sub-image brightnesses, stored compactly: row-major in a single flat array, as 16-bit fixed-point
+ * values - 2 bytes per cell, a quarter of a double[][] table and without its per-row arrays.
+ * <p>
+ * A brightness between 0 and 1 is stored as the nearest multiple of 1 / FIXED_POINT_SCALE, so a stored
+ * brightness is within MAX_ROUNDING_ERROR (half a step, about 7.6e-6) of the one it was set to - far below
+ * the brightness gaps between chars. Grids are only ever set from brightnesses calculated from the image
+ * (never derived from other grids' stored values), so that single rounding is the only error, and a cell's
+ * stored value is the same however it was arrived at.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class BrightnessGrid {
+    /**
+     * The stored value of a brightness of 1. Brightnesses are stored as multiples of 1 / FIXED_POINT_SCALE.
+     */
+    public static final int FIXED_POINT_SCALE = 0xFFFF;
+
+    /**
+     * The largest difference between a brightness and its stored value.
+     */
+    public static final double MAX_ROUNDING_ERROR = 0.5 / FIXED_POINT_SCALE;
+
+    private static final int UNSIGNED_MASK = 0xFFFF;
+    private static final int ARRAY_HEADER_BYTES = 16; // an estimate of an array's overhead on the heap
+    private static final int OBJECT_HEADER_BYTES = 16; // an estimate of an object's fields overhead
+
+    private final int rows;
+    private final int cols;
+    private final short[] values; // unsigned fixed-point values, row by row
+
+    /**
+     * Constructs a new grid, all of whose brightnesses are 0.
+     *
+     * @param rows the number of rows of the grid.
+     * @param cols the number of columns of the grid.
+     */
+    public BrightnessGrid(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.values = new short[rows * cols];
+    }
+
+    /**
+     * Returns the number of rows of the grid.
+     *
+     * @return the number of rows.
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the number of columns of the grid.
+     *
+     * @return the number of columns.
+     */
+    public int getCols() {
+        return this.cols;
+    }
+
+    /**
+     * Returns the stored brightness of a cell.
+     *
+     * @param row the cell's row.
+     * @param col the cell's column.
+     * @return the cell's brightness, between 0 and 1 (within MAX_ROUNDING_ERROR of the one it was set to).
+     */
+    public double getBrightness(int row, int col) {
+        return (double) this.getFixedPointBrightness(row, col) / FIXED_POINT_SCALE;
+    }
+
+    /**
+     * Returns the stored fixed-point value of a cell's brightness.
+     *
+     * @param row the cell's row.
+     * @param col the cell's column.
+     * @return the cell's brightness in multiples of 1 / FIXED_POINT_SCALE, between 0 and FIXED_POINT_SCALE.
+     */
+    int getFixedPointBrightness(int row, int col) {
+        return this.values[row * this.cols + col] & UNSIGNED_MASK;
+    }
+
+    /**
+     * Sets the brightness of a cell, rounded to the nearest fixed-point value. Brightnesses outside [0, 1]
+     * are clamped to it.
+     *
+     * @param row        the cell's row.
+     * @param col        the cell's column.
+     * @param brightness the cell's brightness, between 0 and 1.
+     */
+    public void setBrightness(int row, int col, double brightness) {
+        long value = Math.round(brightness * FIXED_POINT_SCALE);
+        this.values[row * this.cols + col] = (short) Math.max(0, Math.min(FIXED_POINT_SCALE, value));
+    }
+
+    /**
+     * Estimates the number of bytes the grid takes on the heap.
+     *
+     * @return the grid's estimated size, in bytes.
+     */
+    public long getMemory() {
+        return OBJECT_HEADER_BYTES + ARRAY_HEADER_BYTES + (long) this.values.length * Short.BYTES;
+    }
+}
@@ -0,0 +1,181 @@
+package ascii_art;
+
+/**
+ * A histogram of the brightnesses of a grid of sub-images, quantized to LEVELS equal levels of the range
+ * [0, 1] (the last level includes 1 itself).
+ * <p>
+ * Alongside the count of each level, the histogram keeps the level of every cell (row by row), so stages that
+ * work per level - matching each distinct level with a char once, auto-contrast, statistics - can map their
+ * results back to the cells with a single array read per cell.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class BrightnessHistogram {
+    /**
+     * The number of levels the brightness range is quantized to.
+     */
+    public static final int LEVELS = 4096;
+
+    // the level of each fixed-point brightness of a BrightnessGrid, to build histograms without arithmetic
+    private static final short[] FIXED_POINT_LEVELS = getFixedPointLevels();
+
+    private final int rows;
+    private final int cols;
+    private final short[] cellLevels; // LEVELS fits in a short
+    private final int[] counts;
+    private final int[] distinctLevels; // in ascending order
+
+    /**
+     * Builds the histogram of a grid of sub-image brightnesses.
+     *
+     * @param brightnessMap the brightness of each cell of the grid.
+     */
+    public BrightnessHistogram(BrightnessGrid brightnessMap) {
+        this.rows = brightnessMap.getRows();
+        this.cols = brightnessMap.getCols();
+        this.cellLevels = new short[this.rows * this.cols];
+        this.counts = new int[LEVELS];
+        for (int row = 0; row < this.rows; row++) {
+            for (int col = 0; col < this.cols; col++) {
+                int level = getCellLevel(brightnessMap, row, col);
+                this.cellLevels[row * this.cols + col] = (short) level;
+                this.counts[level]++;
+            }
+        }
+
+        int distinctLevelsNumber = 0;
+        for (int count : this.counts) {
+            if (count > 0) {
+                distinctLevelsNumber++;
+            }
+        }
+        this.distinctLevels = new int[distinctLevelsNumber];
+        for (int level = 0, i = 0; level < LEVELS; level++) {
+            if (this.counts[level] > 0) {
+                this.distinctLevels[i++] = level;
+            }
+        }
+    }
+
+    /**
+     * Finds the level of a brightness. Brightnesses outside [0, 1] are clamped to the first or last level.
+     *
+     * @param brightness a brightness between 0 and 1.
+     * @return the brightness's level, between 0 and LEVELS - 1.
+     */
+    public static int toLevel(double brightness) {
+        if (!(brightness > 0)) { // also catches NaN
+            return 0;
+        }
+        return Math.min(LEVELS - 1, (int) (brightness * LEVELS));
+    }
+
+    /**
+     * Finds the level of a cell of a brightness grid, as the histogram of the grid would - for quantizing
+     * cells whose grid is not complete yet.
+     *
+     * @param brightnessMap the brightness grid.
+     * @param row           the cell's row.
+     * @param col           the cell's column.
+     * @return the cell's level, between 0 and LEVELS - 1.
+     */
+    public static int getCellLevel(BrightnessGrid brightnessMap, int row, int col) {
+        return FIXED_POINT_LEVELS[brightnessMap.getFixedPointBrightness(row, col)];
+    }
+
+    // Finds the level of every fixed-point brightness, as toLevel finds it for the brightness it stands for
+    private static short[] getFixedPointLevels() {
+        short[] fixedPointLevels = new short[BrightnessGrid.FIXED_POINT_SCALE + 1];
+        for (int value = 0; value <= BrightnessGrid.FIXED_POINT_SCALE; value++) {
+            fixedPointLevels[value] = (short) toLevel((double) value / BrightnessGrid.FIXED_POINT_SCALE);
+        }
+        return fixedPointLevels;
+    }
+
+    /**
+     * Returns the lowest brightness of a level.
+     *
+     * @param level a level between 0 and LEVELS - 1.
+     * @return the lowest brightness of the level.
+     */
+    public static double getLevelStart(int level) {
+        return (double) level / LEVELS;
+    }
+
+    /**
+     * Returns the brightness right after a level (the end of the last level, 1, is in the level itself).
+     *
+     * @param level a level between 0 and LEVELS - 1.
+     * @return the brightness the level ends at.
+     */
+    public static double getLevelEnd(int level) {
+        return (double) (level + 1) / LEVELS;
+    }
+
+    /**
+     * Returns the level of a cell of the grid.
+     *
+     * @param row the cell's row.
+     * @param col the cell's column.
+     * @return the cell's level.
+     */
+    public int getCellLevel(int row, int col) {
+        return this.cellLevels[row * this.cols + col];
+    }
+
+    /**
+     * Returns the number of cells in a level.
+     *
+     * @param level a level between 0 and LEVELS - 1.
+     * @return the number of cells whose brightness is in the level.
+     */
+    public int getCount(int level) {
+        return this.counts[level];
+    }
+
+    /**
+     * Returns the levels that have cells in them.
+     *
+     * @return the levels that have cells in them, in ascending order (a copy).
+     */
+    public int[] getDistinctLevels() {
+        return this.distinctLevels.clone();
+    }
+
+    /**
+     * Returns the number of levels that have cells in them.
+     *
+     * @return the number of distinct levels.
+     */
+    public int getDistinctLevelsNumber() {
+        return this.distinctLevels.length;
+    }
+
+    /**
+     * Returns the number of cells in the grid.
+     *
+     * @return the number of cells.
+     */
+    public int getCellsNumber() {
+        return this.cellLevels.length;
+    }
+
+    /**
+     * Finds the lowest level below (or at) which at least the given fraction of the cells are, e.g. for
+     * stretching the contrast between the 1st and 99th percentiles.
+     *
+     * @param fraction a fraction of the cells, between 0 and 1.
+     * @return the level of the percentile, or 0 if the grid is empty.
+     */
+    public int getPercentileLevel(double fraction) {
+        long cellsNeeded = (long) Math.ceil(fraction * this.cellLevels.length);
+        long cellsSoFar = 0;
+        for (int level : this.distinctLevels) {
+            cellsSoFar += this.counts[level];
+            if (cellsSoFar >= cellsNeeded) {
+                return level;
+            }
+        }
+        return 0;
+    }
+}
@@ -1,58 +1,152 @@
 package ascii_art;
 
+import image.ImageIntegral;
+import image.SubImageGrid;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
 /**
  * A memento-like class for storing and restoring sub-image brightnesses that are calculated once.
  * AsciiArtAlgorithm holds an instance of BrightnessMemento, and uses it to update it (save) when
- * calculations are made, and if run parameters haven't changed - would be restored and re-used.
+ * calculations are made, and if the same division of the image is run again - they are restored and re-used.
+ * <p>
+ * The memento is a brightness pyramid: it keeps the sub-images brightnesses of every grid it was given, as
+ * compact BrightnessGrids, keyed by the image (its ImageIntegral instance) and the grid's geometry. It only
+ * caches levels that were calculated from the image: a level is never derived from another level's rounded
+ * brightnesses, whose second rounding could change a char, so a restored level is always exactly the one the
+ * image gives, regardless of which levels were stored before. AsciiArtAlgorithm fills the pyramid ahead of
+ * "res up" by calculating each grid's refined grid (see SubImageGrid.getRefinedGrid) along with it.
+ * <p>
+ * The memento is a bounded LRU cache: once its levels take more memory than its budget, the least recently
+ * saved or restored levels are evicted, except for the last level saved, which is always kept. Every
+ * restoration request is counted as a hit or a miss.
  *
  * @author Or Tarazi, Agam Hershko
  */
 class BrightnessMemento {
-    private boolean lastStateValid = true;
-    private double[][] brightnessHistory;
+    private static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    private final long memoryBudget;
+    private final LinkedHashMap<LevelKey, BrightnessGrid> brightnessLevels =
+            new LinkedHashMap<>(16, 0.75f, true); // in access order, least recently used first
+    private long usedMemory = 0;
+    private long hitsNumber = 0;
+    private long missesNumber = 0;
 
     /**
-     * creates a new instance of the memento object.
-     *
-     * @param subImageBrightnessMatrix the initial brightnesses to be saved
+     * creates a new, empty instance of the memento object, that may use a quarter of the maximal heap size.
      */
-    public BrightnessMemento(double[][] subImageBrightnessMatrix) {
-        this.saveState(subImageBrightnessMatrix);
+    public BrightnessMemento() {
+        this(DEFAULT_MEMORY_BUDGET);
     }
 
+    /**
+     * creates a new, empty instance of the memento object.
+     *
+     * @param memoryBudget the number of bytes the stored levels may take, before the least recently used
+     *                     ones are evicted
+     */
+    public BrightnessMemento(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
 
     /**
-     * get the validity status of the last state
+     * stores the brightnesses of the sub-images of a grid, as a level of the pyramid of an image
      *
-     * @return last state validity
+     * @param image         the integral image the brightnesses were calculated from
+     * @param grid          the grid the brightnesses were calculated for
+     * @param brightnessMap the sub-images brightnesses to be stored in memento, indexed like the grid's cells
      */
-    public boolean isLastStateValid() {
-        return this.lastStateValid;
+    public void saveState(ImageIntegral image, SubImageGrid grid, BrightnessGrid brightnessMap) {
+        BrightnessGrid replacedMap = this.brightnessLevels.put(new LevelKey(image, grid), brightnessMap);
+        if (replacedMap != null) {
+            this.usedMemory -= replacedMap.getMemory();
+        }
+        this.usedMemory += brightnessMap.getMemory();
+
+        // evict least recently used levels, but never the one just saved (the last in access order)
+        Iterator<BrightnessGrid> levels = this.brightnessLevels.values().iterator();
+        while (this.usedMemory > this.memoryBudget && this.brightnessLevels.size() > 1) {
+            this.usedMemory -= levels.next().getMemory();
+            levels.remove();
+        }
     }
 
     /**
-     * set the validity status of the last state
+     * on demand, returns the brightnesses of the sub-images of a grid from earlier.
+     *
+     * @param image the integral image the brightnesses should have been calculated from
+     * @param grid  the grid to restore the brightnesses for
+     * @return saved brightnesses of the grid's sub-images, or null if they were not stored
      */
-    public void setLastStateValidity(boolean validity) {
-        this.lastStateValid = validity;
+    public BrightnessGrid restoreState(ImageIntegral image, SubImageGrid grid) {
+        BrightnessGrid brightnessMap = this.brightnessLevels.get(new LevelKey(image, grid));
+        if (brightnessMap != null) {
+            this.hitsNumber++;
+        } else {
+            this.missesNumber++;
+        }
+        return brightnessMap;
     }
 
     /**
-     * stores the brightnesses of sub-images
+     * checks whether the brightnesses of a grid are stored, without counting a restoration request or
+     * marking the level as recently used.
      *
-     * @param subImageBrightnessMatrix the sub-images brightnesses matrix to be stored in memento
+     * @param image the integral image the brightnesses should have been calculated from
+     * @param grid  the grid to check
+     * @return true if the grid's brightnesses are stored
      */
+    public boolean containsState(ImageIntegral image, SubImageGrid grid) {
+        return this.brightnessLevels.containsKey(new LevelKey(image, grid));
+    }
 
-    public void saveState(double[][] subImageBrightnessMatrix) {
-        this.brightnessHistory = subImageBrightnessMatrix;
+    /**
+     * @return the number of restoration requests that found the requested level.
+     */
+    public long getHitsNumber() {
+        return this.hitsNumber;
     }
 
     /**
-     * on demand, returns the brightnesses from earlier
-     *
-     * @return saved brightnesses from last run
+     * @return the number of restoration requests whose level had to be calculated from the image.
+     */
+    public long getMissesNumber() {
+        return this.missesNumber;
+    }
+
+    /**
+     * The key of a level of the pyramid: the image it was calculated from (compared by identity, as each
+     * loaded image has its own integral image) and the grid it was calculated for (compared by geometry).
      */
-    public double[][] restoreState() {
-        return this.brightnessHistory;
+    private static final class LevelKey {
+        private final ImageIntegral image;
+        private final SubImageGrid grid;
+
+        /**
+         * Constructs a new key.
+         *
+         * @param image the integral image the level was calculated from.
+         * @param grid  the grid the level was calculated for.
+         */
+        private LevelKey(ImageIntegral image, SubImageGrid grid) {
+            this.image = image;
+            this.grid = grid;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof LevelKey)) {
+                return false;
+            }
+            LevelKey key = (LevelKey) other;
+            return this.image == key.image && this.grid.equals(key.grid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(this.image) + this.grid.hashCode();
+        }
     }
-}
\ No newline at end of file
+}
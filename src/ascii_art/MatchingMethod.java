@@ -0,0 +1,25 @@
+package ascii_art;
+
+/**
+ * Specifies the methods for matching sub-images with ASCII characters.
+ *
+ * <p>This enum defines what of a sub-image is compared with the characters' glyphs:</p>
+ * <ul>
+ *     <li>BRIGHTNESS: Only the sub-image's average brightness.</li>
+ *     <li>SHAPE: The sub-image's shape as well, among characters of about its brightness.</li>
+ * </ul>
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public enum MatchingMethod {
+    /**
+     * Matches the character closest in brightness, according to the round type.
+     */
+    BRIGHTNESS,
+
+    /**
+     * Matches the character closest in shape among the characters closest in brightness. Sub-images smaller
+     * than SubImgCharMatcher.SHAPE_MASK_SIZE pixels are matched by brightness.
+     */
+    SHAPE
+}
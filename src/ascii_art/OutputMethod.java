@@ -3,7 +3,8 @@ package ascii_art;
 /**
  * Specifies the available output methods for ASCII art.
  *
- * <p>This enum defines the modes for rendering ASCII art, either to the console or as an HTML document.</p>
+ * <p>This enum defines the modes for rendering ASCII art, either to the console or as an HTML document
+ * (optionally compressed).</p>
  *
  * @author Or Tarazi, Agam Hershko
  */
@@ -13,6 +14,11 @@ public enum OutputMethod {
      */
     HTML,
 
+    /**
+     * Outputs the ASCII art as an HTML document, compressed with gzip.
+     */
+    HTML_GZIP,
+
     /**
      * Outputs the ASCII art directly to the console.
      */
@@ -0,0 +1,25 @@
+package ascii_art;
+
+/**
+ * Specifies how the image is divided to sub-images for a given resolution.
+ *
+ * <ul>
+ *     <li>PADDED: The image is padded with white to power-of-two dimensions, and divided to square
+ *     sub-images of whole pixels. Used when the resolution is only ever doubled or halved.</li>
+ *     <li>EXACT: The image is divided as is, with no padding, to exactly `resolution` columns of sub-images
+ *     whose sizes may be fractions of pixels. Used when the user sets an exact resolution.</li>
+ * </ul>
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public enum ResolutionMode {
+    /**
+     * Pads the image to powers of two and divides it to whole-pixel sub-images.
+     */
+    PADDED,
+
+    /**
+     * Divides the unpadded image to exactly the requested number of columns.
+     */
+    EXACT
+}
@@ -1,12 +1,24 @@
 package ascii_art;
 
-import ascii_output.AsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_output.StreamingAsciiOutput;
+import image.GrayscaleKernel;
 import image.Image;
+import image.ImageBrightness;
+import image.ImageColorIntegral;
+import image.ImageIntegral;
 import exceptions.*;
 import image_char_matching.SubImgCharMatcher;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.Locale;
+
 
 /**
  * The Shell class serves as the main control interface for handling and processing images into ASCII art.
@@ -30,7 +42,11 @@ public class Shell {
     // Constants for algorithm
     private static final int DEFAULT_RESOLUTION = 2;
     private static final int RESOLUTION_SCALE_FACTOR = 2;
+    private static final int ALGORITHM_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    // The system property that selects the grayscale kernel, e.g. -Dascii_art.grayscaleKernel=scalar
+    private static final String GRAYSCALE_KERNEL_PROPERTY = "ascii_art.grayscaleKernel";
     private static final String HTML_OUTPUT_PATH = "out.html";
+    private static final String HTML_GZIP_OUTPUT_PATH = "out.html.gz";
     private static final String HTML_FONT = "Courier New";
 
     private static final String WORDS_SEPARATOR = " ";
@@ -45,6 +61,12 @@ public class Shell {
     private static final int RANGE_SEPARATOR_INDEX = 1;
     private static final int RANGE_END_CHAR_INDEX = 2;
 
+    // Constants for unicode charsets, e.g. "add U+2580-U+259F" (BMP codepoints only), or "add file chars.txt"
+    private static final String CODEPOINT_OPERAND_PATTERN = "U\\+\\p{XDigit}{4}(-U\\+\\p{XDigit}{4})?";
+    private static final String CODEPOINT_PREFIX = "U+";
+    private static final int HEX_RADIX = 16;
+    private static final int BMP_CHARS_NUMBER = Character.MAX_VALUE + 1;
+
     // Input Messages
     private static final String ENTER_COMMAND_MESSAGE = ">>> ";
     private static final String RESOLUTION_SET_MESSAGE = "Resolution set to ";
@@ -55,26 +77,47 @@ public class Shell {
     private static final String CHANGE_RESOLUTION = "res";
     private static final String CHANGE_OUTPUT = "output";
     private static final String CHANGE_ROUND = "round";
+    private static final String CHANGE_MATCH = "match";
+    private static final String CHANGE_COLOR = "color";
     private static final String ASCII_ART = "asciiArt";
+    private static final String VIEW_STATS = "stats";
     private static final String SPACE_OPERAND = "space"; // Space for adding or removal
     private static final String ALL_OPERAND = "all"; // Phrase for adding/removing all legal chars
+    private static final String FILE_OPERAND = "file"; // Phrase for adding/removing the chars of a file
     private static final String HTML_OUTPUT = "html";
+    private static final String HTML_GZIP_OUTPUT = "html.gz";
     private static final String CONSOLE_OUTPUT = "console";
     private static final String RESOLUTION_UPSCALE = "up";
     private static final String RESOLUTION_DOWNSCALE = "down";
+    private static final String RESOLUTION_PADDED = "padded"; // Back to power-of-two padding after "res 137"
+    private static final String RESOLUTION_VALUE_PATTERN = "\\d{1,9}"; // An exact resolution, e.g. "res 137"
     private static final String UP_ROUND_TYPE = "up";
     private static final String DOWN_ROUND_TYPE = "down";
     private static final String ABS_ROUND_TYPE = "abs";
+    private static final String BRIGHTNESS_MATCHING_METHOD = "brightness";
+    private static final String SHAPE_MATCHING_METHOD = "shape";
+    private static final String COLOR_ON = "on";
+    private static final String COLOR_OFF = "off";
+    private static final String IMAGE_STATS_MESSAGE = "Image: ";
+    private static final String CONSOLE_STATS_MESSAGE = "Console output: %.0f cells/s%n";
+    private static final String NO_CONSOLE_STATS_MESSAGE = "Console output: no art output yet";
+    private static final String INVALID_KERNEL_MESSAGE = "Unknown grayscale kernel, using the default: ";
     private static final String INVALID_COMMAND_MESSAGE = "Did not execute due to incorrect command.";
 
     // private fields
     private int resolution;
+    private ResolutionMode resolutionMode;
     private Image image;
+    private ImageIntegral imageIntegral; // built once per loaded image, shared by all resolutions
     private final SubImgCharMatcher charMatcher;
     private RoundType roundType;
+    private MatchingMethod matchingMethod;
+    private boolean isColored;
+    private ImageColorIntegral imageColorIntegral; // built the first time colors are turned on for the image
     private OutputMethod outputMethod;
-    private AsciiOutput asciiOutput;
-    private final BrightnessMemento brightnessHistory; // history of sub-images brightness
+    private StreamingAsciiOutput asciiOutput;
+    private final ConsoleAsciiOutput consoleOutput; // kept across output changes, for its throughput
+    private final BrightnessMemento brightnessHistory; // pyramid of sub-images brightness, by grid
     private AsciiArtAlgorithm algorithm;
 
 
@@ -91,9 +134,12 @@ public class Shell {
      */
     public Shell() {
         this.resolution = DEFAULT_RESOLUTION;
+        this.resolutionMode = ResolutionMode.PADDED;
         this.outputMethod = OutputMethod.CONSOLE; // Default output method
-        this.asciiOutput = new ConsoleAsciiOutput();
+        this.consoleOutput = new ConsoleAsciiOutput();
+        this.asciiOutput = this.consoleOutput;
         this.roundType = RoundType.ABS;
+        this.matchingMethod = MatchingMethod.BRIGHTNESS;
 
         // Init default chars set
         char[] charset = new char[DEFAULT_LAST_CHAR - DEFAULT_FIRST_CHAR + 1];
@@ -104,7 +150,7 @@ public class Shell {
         this.charMatcher = new SubImgCharMatcher(charset);
         this.charMatcher.setRoundType(this.roundType);
 
-        this.brightnessHistory = new BrightnessMemento(null);
+        this.brightnessHistory = new BrightnessMemento();
     }
 
 
@@ -117,8 +163,9 @@ public class Shell {
     public void run(String imageName) {
         try {
             this.image = new Image(imageName);
-            this.algorithm = new AsciiArtAlgorithm(
-                    this.image, this.brightnessHistory, this.charMatcher, this.resolution);
+            this.imageIntegral = new ImageIntegral(this.image);
+            this.imageColorIntegral = null;
+            this.algorithm = this.createAlgorithm();
 
             String command = getCommand();
             while (!command.equals(EXIT_COMMAND_MESSAGE)) {
@@ -130,6 +177,21 @@ public class Shell {
         }
     }
 
+    /**
+     * Creates an algorithm for the current image, resolution and resolution mode, configured with the
+     * shell's current matching method and color mode.
+     *
+     * @return the new algorithm.
+     */
+    private AsciiArtAlgorithm createAlgorithm() {
+        AsciiArtAlgorithm newAlgorithm = new AsciiArtAlgorithm(this.imageIntegral, this.brightnessHistory,
+                this.charMatcher, this.resolution, this.resolutionMode);
+        newAlgorithm.setParallelism(ALGORITHM_PARALLELISM);
+        newAlgorithm.setMatchingMethod(this.matchingMethod);
+        newAlgorithm.setColorIntegral(this.getColorIntegral());
+        return newAlgorithm;
+    }
+
     /**
      * Stores the user's input into a string for later use in runCommand()
      *
@@ -147,8 +209,9 @@ public class Shell {
      * and performs the appropriate operation. Supported commands include:
      * - Viewing the current character set.
      * - Adding or removing characters.
-     * - Changing resolution, output method, or rounding type.
+     * - Changing resolution, output method, rounding type, matching method, or color mode.
      * - Generating ASCII art from the current image.
+     * - Viewing performance statistics.
      * <p>
      * If an invalid command or exception occurs, an appropriate error message is printed.
      *
@@ -176,15 +239,25 @@ public class Shell {
                 case CHANGE_ROUND:
                     this.changeRoundType(command);
                     break;
+                case CHANGE_MATCH:
+                    this.changeMatchingMethod(command);
+                    break;
+                case CHANGE_COLOR:
+                    this.changeColorMode(command);
+                    break;
                 case ASCII_ART:
                     this.runAsciiArt();
                     break;
+                case VIEW_STATS:
+                    this.printStats();
+                    break;
                 default:
                     System.out.println(INVALID_COMMAND_MESSAGE);
             }
         } catch (InvalidCharsetSizeException | InvalidAddFormatException | InvalidRemoveFormatException |
                  InvalidOutputFormatException | InvalidRoundFormatException |
-                 InvalidResolutionFormatException | InvalidResolutionValueException e) {
+                 InvalidResolutionFormatException | InvalidResolutionValueException |
+                 InvalidCharsetFileException | InvalidMatchFormatException | InvalidColorFormatException e) {
             System.out.println(e.getMessage());
         }
     }
@@ -238,14 +311,89 @@ public class Shell {
             lastChar = range.charAt(RANGE_START_CHAR_INDEX);
         }
 
-        // Add or remove characters in the range
-        for (char c = firstChar; c <= lastChar; c++) {
-            if (isAdding) {
-                this.addChar(c);
-            } else {
-                this.removeChar(c);
+        // Add or remove all the characters in the range at once
+        if (isAdding) {
+            this.charMatcher.addChars(getCharsInRange(firstChar, lastChar));
+        } else {
+            this.charMatcher.removeChars(getCharsInRange(firstChar, lastChar));
+        }
+    }
+
+    // Lists the characters from first to last (inclusive)
+    private static char[] getCharsInRange(char firstChar, char lastChar) {
+        char[] chars = new char[lastChar - firstChar + 1];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (firstChar + i);
+        }
+        return chars;
+    }
+
+    /**
+     * Lists the usable characters of a codepoint range in the format "U+XXXX-U+YYYY" (in either order), or
+     * of a single codepoint in the format "U+XXXX". Codepoints are limited to the basic multilingual plane.
+     *
+     * @param range the codepoint range, matching CODEPOINT_OPERAND_PATTERN.
+     * @return the usable characters of the range, in ascending order.
+     */
+    private static char[] getCharsInCodepointRange(String range) {
+        String[] codepoints = range.split(String.valueOf(RANGE_SEPARATOR));
+        int firstChar = Integer.parseInt(codepoints[0].substring(CODEPOINT_PREFIX.length()), HEX_RADIX);
+        int lastChar = Integer.parseInt(
+                codepoints[codepoints.length - 1].substring(CODEPOINT_PREFIX.length()), HEX_RADIX);
+
+        BitSet chars = new BitSet(BMP_CHARS_NUMBER);
+        for (int c = Math.min(firstChar, lastChar); c <= Math.max(firstChar, lastChar); c++) {
+            if (isCharUsable((char) c)) {
+                chars.set(c);
             }
         }
+        return toChars(chars);
+    }
+
+    /**
+     * Reads the distinct usable characters of a UTF-8 text file. Characters outside the basic multilingual
+     * plane, and characters that do not render a glyph (line breaks, controls etc.), are skipped.
+     *
+     * @param path the path of the file.
+     * @return the usable characters of the file, in ascending order.
+     * @throws InvalidCharsetFileException if the file cannot be read.
+     */
+    private static char[] readCharsetFile(String path) throws InvalidCharsetFileException {
+        String content;
+        try {
+            content = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        } catch (IOException | InvalidPathException | SecurityException e) {
+            throw new InvalidCharsetFileException();
+        }
+
+        BitSet chars = new BitSet(BMP_CHARS_NUMBER);
+        content.codePoints()
+                .filter(codepoint -> codepoint < BMP_CHARS_NUMBER && isCharUsable((char) codepoint))
+                .forEach(chars::set);
+        return toChars(chars);
+    }
+
+    // The rest of the command after the given operand, e.g. the path in "add file my charset.txt"
+    private static String getFilePath(String command, String operand) {
+        int operandEnd = command.indexOf(WORDS_SEPARATOR + operand) + WORDS_SEPARATOR.length() +
+                operand.length();
+        return command.substring(operandEnd).trim();
+    }
+
+    // Check if char renders a glyph of its own: a defined char that isn't a control, format or surrogate
+    private static boolean isCharUsable(char c) {
+        return Character.isDefined(c) && !Character.isISOControl(c) && !Character.isSurrogate(c) &&
+                Character.getType(c) != Character.FORMAT;
+    }
+
+    // Lists the chars of a set, in ascending order
+    private static char[] toChars(BitSet chars) {
+        char[] charsArray = new char[chars.cardinality()];
+        int charIndex = 0;
+        for (int c = chars.nextSetBit(0); c >= 0; c = chars.nextSetBit(c + 1)) {
+            charsArray[charIndex++] = (char) c;
+        }
+        return charsArray;
     }
 
     /**
@@ -253,9 +401,10 @@ public class Shell {
      * The format of the command determines how characters are added.
      *
      * @param command the command string, typically starting with "add" followed by the characters to add.
-     * @throws InvalidAddFormatException if the format of the command is invalid.
+     * @throws InvalidAddFormatException   if the format of the command is invalid.
+     * @throws InvalidCharsetFileException if the command is "add file" and the file cannot be read.
      */
-    private void addChars(String command) throws InvalidAddFormatException {
+    private void addChars(String command) throws InvalidAddFormatException, InvalidCharsetFileException {
         if (isWordsNumberInvalid(command)) {
             throw new InvalidAddFormatException();
         }
@@ -263,10 +412,12 @@ public class Shell {
         String formatToAdd = command.split(WORDS_SEPARATOR)[OPERAND_INDEX];
         if (isRangeFormat(formatToAdd)) {
             this.applyRangeOperation(formatToAdd, true);
+        } else if (formatToAdd.matches(CODEPOINT_OPERAND_PATTERN)) {
+            this.charMatcher.addChars(getCharsInCodepointRange(formatToAdd));
+        } else if (formatToAdd.equals(FILE_OPERAND)) {
+            this.charMatcher.addChars(readCharsetFile(getFilePath(command, FILE_OPERAND)));
         } else if (formatToAdd.equals(ALL_OPERAND)) {
-            for (char c = FIRST_LEGAL_CHAR; c <= LAST_LEGAL_CHAR; c++) {
-                this.addChar(c);
-            }
+            this.charMatcher.addChars(getCharsInRange(FIRST_LEGAL_CHAR, LAST_LEGAL_CHAR));
         } else if (formatToAdd.equals(SPACE_OPERAND)) {
             this.addChar(SPACE_CHARACTER);
         } else if (formatToAdd.length() == 1 && isCharLegal(formatToAdd.charAt(COMMAND_INDEX))) {
@@ -288,8 +439,10 @@ public class Shell {
      *
      * @param command the command string, starting with "remove" followed by the characters to remove.
      * @throws InvalidRemoveFormatException if the format of the command is invalid.
+     * @throws InvalidCharsetFileException  if the command is "remove file" and the file cannot be read.
      */
-    private void removeChars(String command) throws InvalidRemoveFormatException {
+    private void removeChars(String command)
+            throws InvalidRemoveFormatException, InvalidCharsetFileException {
         if (isWordsNumberInvalid(command)) {
             throw new InvalidRemoveFormatException();
         }
@@ -297,10 +450,12 @@ public class Shell {
         String formatToRemove = command.split(WORDS_SEPARATOR)[OPERAND_INDEX];
         if (isRangeFormat(formatToRemove)) {
             this.applyRangeOperation(formatToRemove, false);
+        } else if (formatToRemove.matches(CODEPOINT_OPERAND_PATTERN)) {
+            this.charMatcher.removeChars(getCharsInCodepointRange(formatToRemove));
+        } else if (formatToRemove.equals(FILE_OPERAND)) {
+            this.charMatcher.removeChars(readCharsetFile(getFilePath(command, FILE_OPERAND)));
         } else if (formatToRemove.equals(ALL_OPERAND)) {
-            for (char c = FIRST_LEGAL_CHAR; c <= LAST_LEGAL_CHAR; c++) {
-                this.removeChar(c);
-            }
+            this.charMatcher.removeChars(getCharsInRange(FIRST_LEGAL_CHAR, LAST_LEGAL_CHAR));
         } else if (formatToRemove.equals(SPACE_OPERAND)) {
             this.removeChar(SPACE_CHARACTER);
         } else if (formatToRemove.length() == 1 && isCharLegal(formatToRemove.charAt(COMMAND_INDEX))) {
@@ -318,19 +473,24 @@ public class Shell {
 
 
     /**
-     * Changes the resolution of the ASCII art by doubling or halving the current resolution.
+     * Changes the resolution of the ASCII art by doubling or halving the current resolution, or by setting
+     * it to an exact value.
      *
      * <p>This method adjusts the resolution based on the user's command:
      * "up" multiplies the resolution by the scaling factor, and "down" divides it by the same factor.
+     * A number sets the resolution to exactly that many characters in a row, and from then on the image is
+     * divided without power-of-two padding (up and down keep dividing that way), until "padded" returns to
+     * padding the image - at the largest power of two not above the current resolution.
      * The resolution change is only applied if the resulting value lies within the legal boundaries
      * defined by the image's dimensions.</p>
      * <p>
      * A new instance of AsciiArtAlgorithm is created and the current AsciiArtAlgorithm instance is replaced
      * upon resolution change.
      *
-     * @param command "up" for upscale, "down" for downscale.
+     * @param command "up" for upscale, "down" for downscale, a number for an exact resolution, or "padded" to
+     *                return to padding the image.
      * @throws InvalidResolutionValueException  if the new resolution exceeds the allowed limits.
-     * @throws InvalidResolutionFormatException if the command is not "up" or "down".
+     * @throws InvalidResolutionFormatException if the command is not "up", "down", "padded" or a number.
      */
     private void changeResolution(String command)
             throws InvalidResolutionValueException, InvalidResolutionFormatException {
@@ -340,23 +500,31 @@ public class Shell {
 
 
         String resolution = command.split(WORDS_SEPARATOR)[OPERAND_INDEX];
-        int newResolution = switch (resolution) {
-            // checks if the input is valid and if so, calculate the resolution after the requested change:
-            case RESOLUTION_UPSCALE -> this.resolution * RESOLUTION_SCALE_FACTOR;
-            case RESOLUTION_DOWNSCALE -> this.resolution / RESOLUTION_SCALE_FACTOR;
-            default -> throw new InvalidResolutionFormatException();
-        };
+        ResolutionMode newResolutionMode = this.resolutionMode;
+        int newResolution;
+        // checks if the input is valid and if so, calculate the resolution after the requested change:
+        if (resolution.equals(RESOLUTION_UPSCALE)) {
+            newResolution = this.resolution * RESOLUTION_SCALE_FACTOR;
+        } else if (resolution.equals(RESOLUTION_DOWNSCALE)) {
+            newResolution = this.resolution / RESOLUTION_SCALE_FACTOR;
+        } else if (resolution.equals(RESOLUTION_PADDED)) {
+            newResolution = Integer.highestOneBit(this.resolution); // padded grids need a power of two
+            newResolutionMode = ResolutionMode.PADDED;
+        } else if (resolution.matches(RESOLUTION_VALUE_PATTERN)) {
+            newResolution = Integer.parseInt(resolution);
+            newResolutionMode = ResolutionMode.EXACT;
+        } else {
+            throw new InvalidResolutionFormatException();
+        }
 
         if (this.isResolutionLegal(newResolution)) {
             this.resolution = newResolution; // upscale & downscale ONLY if the new resolution is permitted.
+            this.resolutionMode = newResolutionMode;
         } else {
             throw new InvalidResolutionValueException();
         }
-        // let the algorithm know the resolution has been changed, and now brightness calculations are needed.
-        this.brightnessHistory.setLastStateValidity(false);
         // create a new algorithm and replace the current one
-        this.algorithm = new AsciiArtAlgorithm(
-                this.image, this.brightnessHistory, this.charMatcher, this.resolution);
+        this.algorithm = this.createAlgorithm();
         // inform the user that the resolution has been changed + the new resolution value
         System.out.println(RESOLUTION_SET_MESSAGE + this.resolution);
     }
@@ -381,10 +549,12 @@ public class Shell {
      * Changes the output method for the ASCII art results.
      *
      * <p>The output method determines how the ASCII art is displayed:
-     * "console" outputs the art to the console, while "html" generates an HTML file.</p>
+     * "console" outputs the art to the console, while "html" generates an HTML file, and "html.gz" generates
+     * one compressed with gzip (for large arts that are archived).</p>
      *
-     * @param command "console" for console output or "html" for HTML output.
-     * @throws InvalidOutputFormatException if the command is not "console" or "html".
+     * @param command "console" for console output, "html" for HTML output or "html.gz" for compressed HTML
+     *                output.
+     * @throws InvalidOutputFormatException if the command is not "console", "html" or "html.gz".
      */
     private void changeOutputMethod(String command) throws InvalidOutputFormatException {
         if (isWordsNumberInvalid(command)) {
@@ -394,10 +564,13 @@ public class Shell {
         String output = command.split(WORDS_SEPARATOR)[OPERAND_INDEX];
         if (output.equals(CONSOLE_OUTPUT)) {
             this.outputMethod = OutputMethod.CONSOLE;
-            this.asciiOutput = new ConsoleAsciiOutput();
+            this.asciiOutput = this.consoleOutput;
         } else if (output.equals(HTML_OUTPUT)) {
             this.outputMethod = OutputMethod.HTML;
             this.asciiOutput = new HtmlAsciiOutput(HTML_OUTPUT_PATH, HTML_FONT);
+        } else if (output.equals(HTML_GZIP_OUTPUT)) {
+            this.outputMethod = OutputMethod.HTML_GZIP;
+            this.asciiOutput = new HtmlAsciiOutput(HTML_GZIP_OUTPUT_PATH, HTML_FONT, true);
         } else {
             throw new InvalidOutputFormatException();
         }
@@ -437,6 +610,82 @@ public class Shell {
         this.charMatcher.setRoundType(this.roundType);
     }
 
+    /**
+     * Changes the method of matching sub-images with characters.
+     *
+     * <p>The matching method determines what of a sub-image is compared with the characters:
+     * - "brightness": Only the sub-image's average brightness, according to the rounding type.
+     * - "shape": The sub-image's shape as well, among the characters closest to it in brightness.</p>
+     *
+     * @param command "brightness" for brightness matching, or "shape" for shape matching.
+     * @throws InvalidMatchFormatException if the command is not "brightness" or "shape".
+     */
+    private void changeMatchingMethod(String command) throws InvalidMatchFormatException {
+        if (isWordsNumberInvalid(command)) {
+            throw new InvalidMatchFormatException();
+        }
+
+        String matchingMethod = command.split(WORDS_SEPARATOR)[OPERAND_INDEX];
+        switch (matchingMethod) {
+            case BRIGHTNESS_MATCHING_METHOD:
+                this.matchingMethod = MatchingMethod.BRIGHTNESS;
+                break;
+            case SHAPE_MATCHING_METHOD:
+                this.matchingMethod = MatchingMethod.SHAPE;
+                break;
+            default:
+                throw new InvalidMatchFormatException();
+        }
+
+        this.algorithm.setMatchingMethod(this.matchingMethod);
+    }
+
+    /**
+     * Turns the coloring of the ASCII art on or off.
+     *
+     * <p>When on, each character is colored with the mean color of its sub-image: in the HTML outputs, by
+     * CSS classes of a palette of 216 colors, and in the console, by ANSI escapes - in 24-bit colors if the
+     * terminal declares it supports them (in COLORTERM), or in xterm's 256 colors otherwise.</p>
+     *
+     * @param command "on" to color the art, or "off" for monochrome art.
+     * @throws InvalidColorFormatException if the command is not "on" or "off".
+     */
+    private void changeColorMode(String command) throws InvalidColorFormatException {
+        if (isWordsNumberInvalid(command)) {
+            throw new InvalidColorFormatException();
+        }
+
+        String colorMode = command.split(WORDS_SEPARATOR)[OPERAND_INDEX];
+        switch (colorMode) {
+            case COLOR_ON:
+                this.isColored = true;
+                break;
+            case COLOR_OFF:
+                this.isColored = false;
+                break;
+            default:
+                throw new InvalidColorFormatException();
+        }
+
+        this.algorithm.setColorIntegral(this.getColorIntegral());
+    }
+
+    /**
+     * Returns the integral image of the image's colors if the art is colored, building it the first time it
+     * is needed - so monochrome art never pays for it.
+     *
+     * @return the integral image of the image's colors, or null if the art is monochrome.
+     */
+    private ImageColorIntegral getColorIntegral() {
+        if (!this.isColored) {
+            return null;
+        }
+        if (this.imageColorIntegral == null) {
+            this.imageColorIntegral = new ImageColorIntegral(this.image);
+        }
+        return this.imageColorIntegral;
+    }
+
 
     /**
      * Executes the ASCII art generation based on the current settings of the shell.
@@ -449,8 +698,39 @@ public class Shell {
             throw new InvalidCharsetSizeException();
         }
 
-        char[][] asciiImage = this.algorithm.run();
-        this.asciiOutput.out(asciiImage);
+        // stream the rows to the output as they are matched, rather than building the whole art first
+        this.algorithm.run(this.asciiOutput);
+    }
+
+    /**
+     * Prints performance statistics: the timings of loading the image, and the throughput the console
+     * output last wrote art at, in cells per second (not counting the time it took to match the art's rows).
+     */
+    private void printStats() {
+        System.out.println(IMAGE_STATS_MESSAGE + this.image.getLoadMetrics());
+        double cellsPerSecond = this.consoleOutput.getCellsPerSecond();
+        if (cellsPerSecond > 0) {
+            System.out.printf(CONSOLE_STATS_MESSAGE, cellsPerSecond);
+        } else {
+            System.out.println(NO_CONSOLE_STATS_MESSAGE);
+        }
+    }
+
+    /**
+     * Sets the kernel rows of pixels are converted to grayscale with to the one named (case-insensitively)
+     * by the GRAYSCALE_KERNEL_PROPERTY system property: "scalar" or "row_batched". If the property is not
+     * set, or names no kernel, ImageBrightness's default kernel is kept.
+     */
+    private static void setGrayscaleKernel() {
+        String kernelName = System.getProperty(GRAYSCALE_KERNEL_PROPERTY);
+        if (kernelName == null) {
+            return;
+        }
+        try {
+            ImageBrightness.setGrayscaleKernel(GrayscaleKernel.valueOf(kernelName.toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            System.out.println(INVALID_KERNEL_MESSAGE + kernelName);
+        }
     }
 
     /**
@@ -462,6 +742,7 @@ public class Shell {
      *             We can assume args are valid.
      */
     public static void main(String[] args) {
+        setGrayscaleKernel();
         Shell shell = new Shell();
         String imageName = args[IMAGE_PATH_ARGS_INDEX];
         shell.run(imageName);
@@ -0,0 +1,27 @@
+package ascii_output;
+
+/**
+ * A StreamingAsciiOutput that can also color its chars: begin the output with beginColored instead of begin,
+ * and each row is then fed with the colors of its chars. An output begun with begin is monochrome, and is fed
+ * with row(char[]) as usual.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public interface ColorAsciiOutput extends StreamingAsciiOutput {
+    /**
+     * Starts the output of a 2D array of colored chars.
+     *
+     * @param rows the number of rows that will follow.
+     * @param cols the number of chars in each row.
+     */
+    void beginColored(int rows, int cols);
+
+    /**
+     * Outputs the next row of colored chars. Like the chars, the colors array may be reused by the caller
+     * once this method returns, so it must not be kept.
+     *
+     * @param row    the row's chars.
+     * @param colors the color of each of the row's chars, packed as 0xRRGGBB.
+     */
+    void row(char[] row, int[] colors);
+}
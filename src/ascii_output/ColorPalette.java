@@ -0,0 +1,146 @@
+package ascii_output;
+
+/**
+ * A palette of 216 colors for colored outputs: the 6x6x6 color cube of xterm's 256 colors, whose channels
+ * each take one of the levels 0, 95, 135, 175, 215 and 255. An output that writes a color per run of cells
+ * rather than per cell (see HtmlAsciiOutput) quantizes cell colors to the palette, so neighboring cells of
+ * nearly the same color share a run.
+ * <p>
+ * A color is quantized with three lookups in a precomputed table of the nearest level of each channel value,
+ * and the palette's entries are indexed like the cube's: index = 36 * red + 6 * green + blue, by the levels'
+ * indices - so entry i of the palette is xterm's color 16 + i.
+ * <p>
+ * Colors are also mapped to the whole of xterm's 256 colors that are the same on every terminal - the cube
+ * and the 24 grays that follow it (colors 16 to 255) - for terminals that are limited to them (see
+ * getXtermIndex). That mapping goes through a precomputed lookup cube of 32x32x32 entries (a byte each,
+ * 32KB), indexed by the 5 high bits of each channel, so a cell costs a single lookup rather than a search
+ * for the nearest color. Each entry holds the nearer of the entry's nearest cube color and its nearest gray
+ * (the gray nearest to the mean of its channels), so the cube is built in a few lookups per entry too.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public final class ColorPalette {
+    /**
+     * The number of colors in the palette.
+     */
+    public static final int SIZE = 216;
+
+    /**
+     * The number of xterm colors, and the bound of the indices getXtermIndex returns.
+     */
+    public static final int XTERM_COLORS = 256;
+
+    private static final int[] LEVELS = {0, 95, 135, 175, 215, 255};
+    private static final int CHANNEL_VALUES = 256;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int RED_STRIDE = LEVELS.length * LEVELS.length;
+    private static final int GREEN_STRIDE = LEVELS.length;
+    private static final int[] NEAREST_LEVELS = getNearestLevels(); // the nearest level's index, by value
+    private static final int CUBE_XTERM_INDEX = 16; // the xterm index of the palette's first color
+    private static final int GRAYS_XTERM_INDEX = CUBE_XTERM_INDEX + SIZE; // and of the first of its grays
+    private static final int GRAYS = XTERM_COLORS - GRAYS_XTERM_INDEX;
+    private static final int FIRST_GRAY = 8;
+    private static final int GRAY_STEP = 10;
+    private static final int LOOKUP_BITS = 5; // per channel, in the lookup cube
+    private static final int LOOKUP_SHIFT = Byte.SIZE - LOOKUP_BITS;
+    private static final int LOOKUP_MASK = (1 << LOOKUP_BITS) - 1;
+    private static final int CHANNELS = 3;
+    private static final byte[] XTERM_INDICES = getXtermIndices(); // the lookup cube, see the class doc
+
+    private ColorPalette() {
+    }
+
+    /**
+     * Quantizes a color to the palette: finds the index of the palette's nearest color in each channel.
+     *
+     * @param rgb the color, packed as 0xRRGGBB.
+     * @return the index of the quantized color in the palette, between 0 and SIZE - 1.
+     */
+    public static int getIndex(int rgb) {
+        return NEAREST_LEVELS[(rgb >>> RED_SHIFT) & CHANNEL_MASK] * RED_STRIDE
+                + NEAREST_LEVELS[(rgb >>> GREEN_SHIFT) & CHANNEL_MASK] * GREEN_STRIDE
+                + NEAREST_LEVELS[rgb & CHANNEL_MASK];
+    }
+
+    /**
+     * Returns a color of the palette.
+     *
+     * @param index the color's index in the palette, between 0 and SIZE - 1.
+     * @return the color, packed as 0xRRGGBB.
+     */
+    public static int getColor(int index) {
+        return LEVELS[index / RED_STRIDE] << RED_SHIFT
+                | LEVELS[index / GREEN_STRIDE % LEVELS.length] << GREEN_SHIFT
+                | LEVELS[index % LEVELS.length];
+    }
+
+    /**
+     * Maps a color to the nearest of xterm's colors 16 to 255 (the palette's colors, and 24 grays), through
+     * the lookup cube - so to within the 8 values each channel of a lookup cube entry spans.
+     *
+     * @param rgb the color, packed as 0xRRGGBB.
+     * @return the color's xterm index, between 16 and 255.
+     */
+    public static int getXtermIndex(int rgb) {
+        int red = (rgb >>> (RED_SHIFT + LOOKUP_SHIFT)) & LOOKUP_MASK;
+        int green = (rgb >>> (GREEN_SHIFT + LOOKUP_SHIFT)) & LOOKUP_MASK;
+        int blue = (rgb >>> LOOKUP_SHIFT) & LOOKUP_MASK;
+        return XTERM_INDICES[(red << LOOKUP_BITS | green) << LOOKUP_BITS | blue] & CHANNEL_MASK;
+    }
+
+    // Builds the lookup cube of the nearest xterm index of each entry's color
+    private static byte[] getXtermIndices() {
+        int lookupValues = 1 << LOOKUP_BITS;
+        byte[] xtermIndices = new byte[lookupValues * lookupValues * lookupValues];
+        int[] channels = new int[CHANNELS];
+        for (int entry = 0; entry < xtermIndices.length; entry++) {
+            // the entry's color: each channel's 5 bits stretched to 8, so the corners are black and white
+            int rgb = 0;
+            int channelsSum = 0;
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                int bits = (entry >> (LOOKUP_BITS * (CHANNELS - 1 - channel))) & LOOKUP_MASK;
+                channels[channel] = bits << LOOKUP_SHIFT | bits >> (LOOKUP_BITS - LOOKUP_SHIFT);
+                rgb = rgb << Byte.SIZE | channels[channel];
+                channelsSum += channels[channel];
+            }
+
+            int cubeIndex = getIndex(rgb);
+            int gray = Math.max(0, Math.min(GRAYS - 1,
+                    Math.round((channelsSum / (float) CHANNELS - FIRST_GRAY) / GRAY_STEP)));
+            int grayLevel = FIRST_GRAY + gray * GRAY_STEP;
+            int grayRgb = grayLevel << RED_SHIFT | grayLevel << GREEN_SHIFT | grayLevel;
+            int cubeDistance = getDistance(channels, getColor(cubeIndex));
+            int grayDistance = getDistance(channels, grayRgb);
+            xtermIndices[entry] = (byte) (grayDistance < cubeDistance ?
+                    GRAYS_XTERM_INDEX + gray : CUBE_XTERM_INDEX + cubeIndex);
+        }
+        return xtermIndices;
+    }
+
+    // Calculates the squared distance between a color's channels and a packed color
+    private static int getDistance(int[] channels, int rgb) {
+        int distance = 0;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            int channelShift = Byte.SIZE * (CHANNELS - 1 - channel);
+            int difference = channels[channel] - ((rgb >>> channelShift) & CHANNEL_MASK);
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    // Builds the table of the index of the nearest level to each channel value
+    private static int[] getNearestLevels() {
+        int[] nearestLevels = new int[CHANNEL_VALUES];
+        int level = 0;
+        for (int value = 0; value < CHANNEL_VALUES; value++) {
+            // move on to the next level once it is nearer (ties go to the lower level)
+            if (level + 1 < LEVELS.length && LEVELS[level + 1] - value < value - LEVELS[level]) {
+                level++;
+            }
+            nearestLevels[value] = level;
+        }
+        return nearestLevels;
+    }
+}
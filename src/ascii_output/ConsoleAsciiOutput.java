@@ -1,18 +1,264 @@
 package ascii_output;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.logging.Logger;
+
 /**
- * Output a 2D array of chars to the console.
+ * Output a 2D array of chars to the console, row by row.
+ * <p>
+ * Each row is assembled - every char followed by a space, then a line separator - in a reusable char buffer,
+ * encoded into a large reusable byte buffer, and the byte buffer is written to the console only when it
+ * fills up and once more at the end of the output, followed by a single flush. So no objects are created
+ * per char or per row, and the console stream is locked once per buffer rather than once per char. Bytes
+ * are written through System.out itself, so they stay in order with everything else printed to it, and are
+ * encoded in System.out's own charset: the one named by the stdout.encoding property (Java 18 and on) or the
+ * sun.stdout.encoding property (set for Windows consoles), which System.out is created with, or else the
+ * default charset.
+ * <p>
+ * Colored output (see beginColored) colors the chars with ANSI escape sequences: 24-bit ("truecolor")
+ * colors, or the nearest of xterm's 256 colors (see ColorPalette.getXtermIndex) on terminals that do not
+ * declare 24-bit support in the COLORTERM environment variable. An escape is written only where the color
+ * changes - spaces, which show no color, never change it, and the color carries over from one row to the
+ * next - and the colors are reset at the end of the output. Escapes are copied from precomputed tables (for
+ * each xterm color, and the decimal digits of each channel value) into the reusable row buffer, so a colored
+ * row costs about as much as a monochrome one.
+ * <p>
+ * The time spent writing each output is measured, and its throughput is logged (at FINE level) and kept
+ * for getCellsPerSecond, which the Shell's "stats" command prints.
  *
  * @author Dan Nirel
  */
-public class ConsoleAsciiOutput implements AsciiOutput {
+public class ConsoleAsciiOutput implements ColorAsciiOutput {
+    private static final char SEPARATOR = ' ';
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final Logger LOGGER = Logger.getLogger(ConsoleAsciiOutput.class.getName());
+    private static final String ESCAPE = "\033[";
+    private static final char[] RESET = (ESCAPE + "0m").toCharArray();
+    private static final char[] TRUE_COLOR_PREFIX = (ESCAPE + "38;2;").toCharArray();
+    private static final char[][] XTERM_ESCAPES = getXtermEscapes(); // by xterm index
+    private static final char[][] DECIMALS = getDecimals(); // the digits of each channel value
+    private static final char CHANNELS_SEPARATOR = ';';
+    private static final char ESCAPE_END = 'm';
+    private static final int MAX_ESCAPE_CHARS = TRUE_COLOR_PREFIX.length + "255;255;255m".length();
+    private static final int CHANNEL_VALUES = 256;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int RGB_MASK = 0xFFFFFF;
+    private static final int NO_COLOR = -1;
+    private static final String COLOR_TERM_VARIABLE = "COLORTERM";
+    private static final String[] TRUE_COLOR_TERMS = {"truecolor", "24bit"};
+    private static final String[] STDOUT_ENCODING_PROPERTIES = {"stdout.encoding", "sun.stdout.encoding"};
+
+    private final CharsetEncoder encoder = getStdoutCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_BYTES);
+    private char[] rowChars = new char[0];
+    private CharBuffer rowBuffer = CharBuffer.wrap(rowChars);
+    private final boolean isTrueColor;
+    private char[] coloredRowChars = new char[0];
+    private CharBuffer coloredRowBuffer = CharBuffer.wrap(coloredRowChars);
+    private boolean isColored;
+    private int currentColor; // the console's color - an rgb, or an xterm index - or NO_COLOR
+    private long cellsNumber;
+    private long writeNanos;
+    private double cellsPerSecond;
+
+    /**
+     * Colored output is in 24-bit colors if the terminal declares it supports them (in the COLORTERM
+     * environment variable), or in xterm's 256 colors otherwise.
+     */
+    public ConsoleAsciiOutput() {
+        this(isTrueColorTerminal());
+    }
+
+    /**
+     * @param isTrueColor whether colored output is in 24-bit colors, rather than in xterm's 256 colors.
+     */
+    public ConsoleAsciiOutput(boolean isTrueColor) {
+        this.isTrueColor = isTrueColor;
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        isColored = false;
+        int rowLength = 2 * cols + LINE_SEPARATOR.length;
+        if (rowChars.length != rowLength) {
+            rowChars = new char[rowLength];
+            rowBuffer = CharBuffer.wrap(rowChars);
+            System.arraycopy(LINE_SEPARATOR, 0, rowChars, 2 * cols, LINE_SEPARATOR.length);
+            for (int x = 0; x < cols; x++) {
+                rowChars[2 * x + 1] = SEPARATOR; // the separators never change
+            }
+        }
+        encoder.reset();
+        bytes.clear();
+        cellsNumber = 0;
+        writeNanos = 0;
+    }
+
+    @Override
+    public void beginColored(int rows, int cols) {
+        begin(rows, cols);
+        isColored = true;
+        currentColor = NO_COLOR;
+        int maxRowLength = cols * (2 + MAX_ESCAPE_CHARS) + LINE_SEPARATOR.length;
+        if (coloredRowChars.length < maxRowLength) {
+            coloredRowChars = new char[maxRowLength];
+            coloredRowBuffer = CharBuffer.wrap(coloredRowChars);
+        }
+    }
+
+    @Override
+    public void row(char[] row) {
+        long startNanos = System.nanoTime();
+        for (int x = 0; x < row.length; x++) {
+            rowChars[2 * x] = row[x];
+        }
+        rowBuffer.clear();
+        encode(rowBuffer, false);
+        cellsNumber += row.length;
+        writeNanos += System.nanoTime() - startNanos;
+    }
+
     @Override
-    public void out(char[][] chars) {
-        for (int y = 0; y < chars.length; y++) {
-            for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
+    public void row(char[] row, int[] colors) {
+        long startNanos = System.nanoTime();
+        char[] chars = coloredRowChars;
+        int lastColor = currentColor;
+        int length = 0;
+        for (int x = 0; x < row.length; x++) {
+            char c = row[x];
+            int color = isTrueColor ? colors[x] & RGB_MASK : ColorPalette.getXtermIndex(colors[x]);
+            // the color rarely changes, so it is checked first - checking for a space first mispredicts often
+            if (color != lastColor && c != SEPARATOR) {
+                length = appendEscape(color, length);
+                lastColor = color;
+            }
+            chars[length] = c;
+            chars[length + 1] = SEPARATOR;
+            length += 2;
+        }
+        currentColor = lastColor;
+        length = append(LINE_SEPARATOR, length);
+        coloredRowBuffer.clear().limit(length);
+        encode(coloredRowBuffer, false);
+        cellsNumber += row.length;
+        writeNanos += System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public void end() {
+        long startNanos = System.nanoTime();
+        if (isColored && currentColor != NO_COLOR) {
+            encode(CharBuffer.wrap(RESET), false);
+        }
+        rowBuffer.position(rowBuffer.limit());
+        encode(rowBuffer, true);
+        while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+            writeBytes();
+        }
+        writeBytes();
+        System.out.flush();
+        writeNanos += System.nanoTime() - startNanos;
+
+        cellsPerSecond = cellsNumber / (Math.max(1, writeNanos) / NANOS_PER_SECOND);
+        LOGGER.fine(() -> String.format("%d cells written to the console in %.1f ms, %.0f cells/s",
+                cellsNumber, writeNanos / NANOS_PER_MILLI, cellsPerSecond));
+    }
+
+    /**
+     * @return the number of cells per second the last output was written at (not counting the time it took
+     * to produce its rows), or 0 if nothing has been output yet.
+     */
+    public double getCellsPerSecond() {
+        return cellsPerSecond;
+    }
+
+    // Appends the escape that sets the console's color to the colored row buffer, and returns its new length
+    private int appendEscape(int color, int length) {
+        if (!isTrueColor) {
+            return append(XTERM_ESCAPES[color], length);
+        }
+        length = append(TRUE_COLOR_PREFIX, length);
+        length = append(DECIMALS[(color >>> RED_SHIFT) & CHANNEL_MASK], length);
+        coloredRowChars[length++] = CHANNELS_SEPARATOR;
+        length = append(DECIMALS[(color >>> GREEN_SHIFT) & CHANNEL_MASK], length);
+        coloredRowChars[length++] = CHANNELS_SEPARATOR;
+        length = append(DECIMALS[color & CHANNEL_MASK], length);
+        coloredRowChars[length++] = ESCAPE_END;
+        return length;
+    }
+
+    // Appends chars to the colored row buffer, and returns its new length
+    private int append(char[] chars, int length) {
+        System.arraycopy(chars, 0, coloredRowChars, length, chars.length);
+        return length + chars.length;
+    }
+
+    // Builds the escape that sets the console's color to each of xterm's colors
+    private static char[][] getXtermEscapes() {
+        char[][] xtermEscapes = new char[ColorPalette.XTERM_COLORS][];
+        for (int index = 0; index < xtermEscapes.length; index++) {
+            xtermEscapes[index] = (ESCAPE + "38;5;" + index + ESCAPE_END).toCharArray();
+        }
+        return xtermEscapes;
+    }
+
+    // Builds the decimal digits of each channel value
+    private static char[][] getDecimals() {
+        char[][] decimals = new char[CHANNEL_VALUES][];
+        for (int value = 0; value < decimals.length; value++) {
+            decimals[value] = Integer.toString(value).toCharArray();
+        }
+        return decimals;
+    }
+
+    // Checks whether the terminal declares it supports 24-bit colors
+    private static boolean isTrueColorTerminal() {
+        String colorTerm = System.getenv(COLOR_TERM_VARIABLE);
+        for (String trueColorTerm : TRUE_COLOR_TERMS) {
+            if (trueColorTerm.equalsIgnoreCase(colorTerm)) {
+                return true;
             }
-            System.out.println();
         }
+        return false;
+    }
+
+    // The charset System.out encodes chars in (PrintStream.charset() is only available from Java 18)
+    private static Charset getStdoutCharset() {
+        for (String property : STDOUT_ENCODING_PROPERTIES) {
+            String charsetName = System.getProperty(property);
+            if (charsetName != null) {
+                try {
+                    return Charset.forName(charsetName);
+                } catch (IllegalArgumentException e) {
+                    // an illegal or unsupported name - ignored, like System.out ignores it
+                }
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    // Encodes chars into the byte buffer, writing the buffer to the console whenever it fills up
+    private void encode(CharBuffer chars, boolean isLastInput) {
+        while (encoder.encode(chars, bytes, isLastInput) == CoderResult.OVERFLOW) {
+            writeBytes();
+        }
+    }
+
+    // Writes the byte buffer's contents to the console, and empties it
+    private void writeBytes() {
+        System.out.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
     }
 }
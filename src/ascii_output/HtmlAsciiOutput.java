@@ -1,33 +1,115 @@
 package ascii_output;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * Output a 2D array of chars to an HTML file viewable in a web browser, row by row: the file is opened and
+ * its header written on begin, each row is written as it arrives, and the file is closed on end.
+ * The file is encoded in UTF-8 (and declares it), so charsets beyond ASCII are displayed as is.
+ * <p>
+ * Rows are encoded to UTF-8 in a single pass, straight into a large reusable byte buffer: ASCII chars are
+ * copied as is unless a precomputed table has an escape for them (for the chars HTML reserves), other chars
+ * are encoded inline, and the buffer's space is checked once per chunk of a row rather than per char. The
+ * buffer is written to a FileChannel whenever it fills up - optionally through gzip, for compressed
+ * (.html.gz) output. A lone surrogate, which UTF-8 cannot encode, is written as '?'.
+ * <p>
+ * Colored output (see beginColored) quantizes the chars' colors to a ColorPalette, whose every entry has a
+ * CSS class declared once in the file's header. Runs of consecutive chars of the same class are coalesced
+ * into a single span, and spaces - which show no color - join the run they are in, so a span is opened only
+ * where the visible color changes. Chars of the palette's black, the text's default color, need no span at
+ * all. This keeps a colored file within a small multiple of a monochrome one, rather than the one styled span
+ * per char that it would take otherwise.
  *
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements ColorAsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAX_CHAR_BYTES = 5; // the longest escape, "&amp;" (a char encodes to 3 bytes)
+    private static final int CHUNK_CHARS = 1 << 10;
+    private static final int ASCII_CHARS = 0x80;
+    private static final byte[][] ASCII_ESCAPES = getAsciiEscapes();
+    private static final byte[][] OPEN_TAGS = getOpenTags(); // by palette index
+    private static final byte[] CLOSE_TAG = "</span>".getBytes(StandardCharsets.UTF_8);
+    private static final int DEFAULT_COLOR_INDEX = ColorPalette.getIndex(0x000000); // the body's text color
+    private static final int NO_COLOR_INDEX = -1;
+    private static final char SPACE = ' ';
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FOOTER = (
+            "</p>\n" +
+                    "</body>\n" +
+                    "</html>\n").getBytes(StandardCharsets.UTF_8);
+    private static final byte REPLACEMENT_BYTE = '?'; // for a lone surrogate, which has no encoding
+    private static final int TWO_BYTES_LIMIT = 0x800;
+    private static final int SIX_BITS_MASK = 0x3F;
+    private static final int TWO_BYTES_LEAD = 0xC0;
+    private static final int THREE_BYTES_LEAD = 0xE0;
+    private static final int FOUR_BYTES_LEAD = 0xF0;
+    private static final int CONTINUATION_BYTE = 0x80;
 
     private final String fontName;
     private final String filename;
+    private final boolean isGzipped;
+    private final byte[] bytes = new byte[BUFFER_BYTES];
+    private final ByteBuffer bytesBuffer = ByteBuffer.wrap(bytes); // for writing the buffer to the channel
+    private int bytesNumber;
+    private WritableByteChannel channel; // open between begin and end (only end closes it)
+    private boolean isFailed; // whether writing has failed since begin, so the rest of the output is dropped
 
     public HtmlAsciiOutput(String filename, String fontName) {
+        this(filename, fontName, false);
+    }
+
+    /**
+     * @param filename  the path of the file to write.
+     * @param fontName  the font the chars are displayed in.
+     * @param isGzipped whether to compress the file with gzip (the file name should then end with .gz).
+     */
+    public HtmlAsciiOutput(String filename, String fontName, boolean isGzipped) {
         this.fontName = fontName;
         this.filename = filename;
+        this.isGzipped = isGzipped;
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        begin(cols, "");
     }
 
     @Override
-    public void out(char[][] chars) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
+    public void beginColored(int rows, int cols) {
+        StringBuilder style = new StringBuilder("<style>");
+        for (int index = 0; index < ColorPalette.SIZE; index++) {
+            style.append(String.format(".c%d{color:#%06x}", index, ColorPalette.getColor(index)));
+        }
+        begin(cols, style.append("</style>").toString());
+    }
+
+    // Opens the file and writes its header, with the given elements in its head
+    private void begin(int cols, String headElements) {
+        bytesNumber = 0;
+        isFailed = false;
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            if (isGzipped) {
+                channel = Channels.newChannel(
+                        new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES));
+            }
+            write(String.format(
                     "<!DOCTYPE html>\n" +
                             "<html>\n" +
+                            "<head><meta charset=\"UTF-8\">%s</head>\n" +
                             "<body style=\"" +
                             "\tCOLOR:#000000;" +
                             "\tTEXT-ALIGN:center;" +
@@ -38,34 +120,190 @@ public class HtmlAsciiOutput implements AsciiOutput {
                             "\tFONT-SIZE:%frem;" +
                             "\tLETTER-SPACING:0.15em;" +
                             "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE / chars[0].length, BASE_LINE_SPACING));
-
-            for (int y = 0; y < chars.length; y++) {
-                for (int x = 0; x < chars[y].length; x++) {
-                    String htmlRep;
-                    switch (chars[y][x]) {
-                        case '<':
-                            htmlRep = "&lt;";
-                            break;
-                        case '>':
-                            htmlRep = "&gt;";
-                            break;
-                        case '&':
-                            htmlRep = "&amp;";
-                            break;
-                        default:
-                            htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
+                    headElements, fontName, BASE_FONT_SIZE / cols, BASE_LINE_SPACING)
+                    .getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void row(char[] row) {
+        if (channel == null || isFailed) {
+            return;
+        }
+        try {
+            writeChars(row, 0, row.length);
+            write(LINE_SEPARATOR);
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void row(char[] row, int[] colors) {
+        if (channel == null || isFailed) {
+            return;
+        }
+        try {
+            int runStart = 0;
+            int runColorIndex = NO_COLOR_INDEX; // the palette index of the open span, if any
+            for (int x = 0; x < row.length; x++) {
+                if (row[x] == SPACE || Character.isLowSurrogate(row[x]) && x > 0 &&
+                        Character.isHighSurrogate(row[x - 1])) {
+                    continue; // a space shows no color, and a surrogate pair is a single char
+                }
+                int colorIndex = ColorPalette.getIndex(colors[x]);
+                if (colorIndex == runColorIndex) {
+                    continue;
+                }
+                // the color changes - write the run so far, and start a new run in the char's color
+                writeChars(row, runStart, x);
+                if (runColorIndex != NO_COLOR_INDEX) {
+                    write(CLOSE_TAG);
                 }
-                writer.newLine();
+                runColorIndex = colorIndex == DEFAULT_COLOR_INDEX ? NO_COLOR_INDEX : colorIndex;
+                if (runColorIndex != NO_COLOR_INDEX) {
+                    write(OPEN_TAGS[runColorIndex]);
+                }
+                runStart = x;
+            }
+            writeChars(row, runStart, row.length);
+            if (runColorIndex != NO_COLOR_INDEX) {
+                write(CLOSE_TAG);
             }
-            writer.write(
-                    "</p>\n" +
-                            "</body>\n" +
-                            "</html>\n");
+            write(LINE_SEPARATOR);
         } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void end() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            try {
+                if (!isFailed) {
+                    write(FOOTER);
+                    writeBytes();
+                }
+            } finally {
+                WritableByteChannel closedChannel = channel;
+                channel = null;
+                closedChannel.close();
+            }
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    // Writes chars of a row, in chunks that are sure to fit in the buffer so chars need no space checks
+    private void writeChars(char[] row, int start, int end) throws IOException {
+        while (start < end) {
+            if (bytesNumber > BUFFER_BYTES - CHUNK_CHARS * MAX_CHAR_BYTES) {
+                writeBytes();
+            }
+            start = encodeChars(row, start, Math.min(end, start + CHUNK_CHARS));
+        }
+    }
+
+    /**
+     * Encodes chars of a row to UTF-8 at the end of the buffer, escaping the chars HTML reserves. The buffer
+     * must have room for MAX_CHAR_BYTES bytes per char.
+     *
+     * @param row   the row's chars.
+     * @param start the index of the first char to encode.
+     * @param end   the index right after the last char to encode.
+     * @return the index of the next char to encode - end, or right after it if a surrogate pair crosses it.
+     */
+    private int encodeChars(char[] row, int start, int end) {
+        int index = bytesNumber;
+        int x = start;
+        for (; x < end; x++) {
+            char c = row[x];
+            if (c < ASCII_CHARS) {
+                byte[] escape = ASCII_ESCAPES[c];
+                if (escape == null) {
+                    bytes[index++] = (byte) c;
+                } else {
+                    System.arraycopy(escape, 0, bytes, index, escape.length);
+                    index += escape.length;
+                }
+            } else if (c < TWO_BYTES_LIMIT) {
+                bytes[index++] = (byte) (TWO_BYTES_LEAD | c >> 6);
+                bytes[index++] = (byte) (CONTINUATION_BYTE | c & SIX_BITS_MASK);
+            } else if (!Character.isSurrogate(c)) {
+                bytes[index++] = (byte) (THREE_BYTES_LEAD | c >> 12);
+                bytes[index++] = (byte) (CONTINUATION_BYTE | c >> 6 & SIX_BITS_MASK);
+                bytes[index++] = (byte) (CONTINUATION_BYTE | c & SIX_BITS_MASK);
+            } else if (Character.isHighSurrogate(c) && x + 1 < row.length &&
+                    Character.isLowSurrogate(row[x + 1])) {
+                int codepoint = Character.toCodePoint(c, row[++x]);
+                bytes[index++] = (byte) (FOUR_BYTES_LEAD | codepoint >> 18);
+                bytes[index++] = (byte) (CONTINUATION_BYTE | codepoint >> 12 & SIX_BITS_MASK);
+                bytes[index++] = (byte) (CONTINUATION_BYTE | codepoint >> 6 & SIX_BITS_MASK);
+                bytes[index++] = (byte) (CONTINUATION_BYTE | codepoint & SIX_BITS_MASK);
+            } else {
+                bytes[index++] = REPLACEMENT_BYTE;
+            }
+        }
+        bytesNumber = index;
+        return x;
+    }
+
+    // Builds the table of the escapes of the ASCII chars HTML reserves (null for every other char)
+    private static byte[][] getAsciiEscapes() {
+        byte[][] asciiEscapes = new byte[ASCII_CHARS][];
+        asciiEscapes['<'] = "&lt;".getBytes(StandardCharsets.UTF_8);
+        asciiEscapes['>'] = "&gt;".getBytes(StandardCharsets.UTF_8);
+        asciiEscapes['&'] = "&amp;".getBytes(StandardCharsets.UTF_8);
+        return asciiEscapes;
+    }
+
+    // Builds the opening tag of a span of each of the palette's colors
+    private static byte[][] getOpenTags() {
+        byte[][] openTags = new byte[ColorPalette.SIZE][];
+        for (int index = 0; index < ColorPalette.SIZE; index++) {
+            openTags[index] = String.format("<span class=c%d>", index).getBytes(StandardCharsets.UTF_8);
+        }
+        return openTags;
+    }
+
+    // Appends bytes to the buffer, writing the buffer out first if they do not fit
+    private void write(byte[] newBytes) throws IOException {
+        if (bytesNumber + newBytes.length > BUFFER_BYTES) {
+            writeBytes();
+        }
+        if (newBytes.length > BUFFER_BYTES) {
+            writeFully(ByteBuffer.wrap(newBytes));
+            return;
+        }
+        System.arraycopy(newBytes, 0, bytes, bytesNumber, newBytes.length);
+        bytesNumber += newBytes.length;
+    }
+
+    // Writes the buffer's contents to the channel, and empties it
+    private void writeBytes() throws IOException {
+        bytesBuffer.clear().limit(bytesNumber);
+        writeFully(bytesBuffer);
+        bytesNumber = 0;
+    }
+
+    // Writes all the remaining bytes of a byte buffer to the channel
+    private void writeFully(ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
+    // Reports a failed write (once per output), and drops the rest of the output - the channel is still
+    // closed by end
+    private void fail() {
+        if (!isFailed) {
             Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+            isFailed = true;
         }
     }
 }
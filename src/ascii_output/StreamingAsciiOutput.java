@@ -0,0 +1,43 @@
+package ascii_output;
+
+/**
+ * An AsciiOutput that can also be fed a 2D array of chars row by row, as the rows are produced: begin is
+ * called once, then row is called for each row in order, then end - so the output can start before the
+ * whole array exists, and never needs to hold all of it.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public interface StreamingAsciiOutput extends AsciiOutput {
+    /**
+     * Starts the output of a 2D array of chars.
+     *
+     * @param rows the number of rows that will follow.
+     * @param cols the number of chars in each row.
+     */
+    void begin(int rows, int cols);
+
+    /**
+     * Outputs the next row of chars. The array may be reused by the caller once this method returns, so it
+     * must not be kept.
+     *
+     * @param row the row's chars.
+     */
+    void row(char[] row);
+
+    /**
+     * Ends the output, after the last row.
+     */
+    void end();
+
+    /**
+     * Output the specified 2D array of chars, row by row.
+     */
+    @Override
+    default void out(char[][] chars) {
+        this.begin(chars.length, chars.length == 0 ? 0 : chars[0].length);
+        for (char[] row : chars) {
+            this.row(row);
+        }
+        this.end();
+    }
+}
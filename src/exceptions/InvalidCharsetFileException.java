@@ -0,0 +1,19 @@
+package exceptions;
+
+/**
+ * Exception thrown when the charset file of an "add file" or "remove file" operation cannot be read.
+ * This exception indicates that the given path does not lead to a readable text file.
+ * The exception message is set to a predefined error message indicating the issue.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class InvalidCharsetFileException extends Exception {
+    private static final String INVALID_CHARSET_FILE = "Did not change the charset due to unreadable file.";
+
+    /**
+     * Constructs a new `InvalidCharsetFileException` with a default error message.
+     */
+    public InvalidCharsetFileException() {
+        super(INVALID_CHARSET_FILE);
+    }
+}
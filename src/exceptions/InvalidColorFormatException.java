@@ -0,0 +1,20 @@
+package exceptions;
+
+/**
+ * Exception thrown when an invalid color mode format is encountered.
+ * This exception indicates that the specified color mode is incorrect.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class InvalidColorFormatException extends Exception {
+
+    private static final String INVALID_COLOR_MESSAGE =
+            "Did not change color mode due to incorrect format.";
+
+    /**
+     * Constructs a new `InvalidColorFormatException` with a default error message.
+     */
+    public InvalidColorFormatException() {
+        super(INVALID_COLOR_MESSAGE);
+    }
+}
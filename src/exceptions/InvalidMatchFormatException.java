@@ -0,0 +1,20 @@
+package exceptions;
+
+/**
+ * Exception thrown when an invalid matching method format is encountered.
+ * This exception indicates that the specified matching method is incorrect.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class InvalidMatchFormatException extends Exception {
+
+    private static final String INVALID_MATCH_MESSAGE =
+            "Did not change matching method due to incorrect format.";
+
+    /**
+     * Constructs a new `InvalidMatchFormatException` with a default error message.
+     */
+    public InvalidMatchFormatException() {
+        super(INVALID_MATCH_MESSAGE);
+    }
+}
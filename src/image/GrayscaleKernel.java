@@ -0,0 +1,27 @@
+package image;
+
+/**
+ * Specifies how rows of packed RGB pixels are reduced to grayscale values.
+ * Both kernels give exactly the same values; they differ only in how they walk the pixels.
+ *
+ * <ul>
+ *     <li>SCALAR: Converts one pixel at a time, each conversion followed by its use (adding it to a sum or
+ *     to a table entry). Simple, but the JIT compiles it to one pixel per instruction sequence.</li>
+ *     <li>ROW_BATCHED: Converts a whole row before using any of it, in loops shaped so that the JIT
+ *     compiles them to SIMD instructions: sums are reduced per color channel (three plain additions per
+ *     pixel, weighted once per row), and conversions are done in place over a copy of the row.</li>
+ * </ul>
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public enum GrayscaleKernel {
+    /**
+     * Converts and uses one pixel at a time.
+     */
+    SCALAR,
+
+    /**
+     * Converts a whole row at a time, in SIMD-friendly loops.
+     */
+    ROW_BATCHED
+}
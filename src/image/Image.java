@@ -5,18 +5,41 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
 
 /**
- * Represents an image that is stored as a 2D array of {java.awt.Color} objects.
- * Provides functionality to load an image from a file, access its pixels,
- * and save it back to a file.
+ * Represents an image that is stored as a flat, row-major array of packed ARGB pixels (one int per pixel).
+ * Provides functionality to load an image from a file, access its pixels (either one by one as
+ * {java.awt.Color} objects, or in bulk rows of packed ints), and save it back to a file.
+ * <p>
+ * An image can also be a window over another image's pixels (see ImageDivision and ImagePadding): the
+ * window shares its parent's buffer and only keeps its position relative to the buffer's source image.
+ * A window may extend beyond the source's bounds - pixels out of the source read as white padding, without
+ * being stored anywhere.
+ * <p>
+ * Images read from files are converted by ImageDecoder, straight from the decoded raster where its layout
+ * allows it, and the time that took is kept in the image's ImageLoadMetrics (and logged at FINE level,
+ * once per loaded file).
  *
  * @author Agam Hershko and Or Tarazi
  */
 public class Image {
-    private final Color[][] pixelArray;
+    /**
+     * The color of pixels outside of the source image (padding).
+     */
+    static final int PADDING_COLOR = Color.WHITE.getRGB();
+
+    private static final Logger LOGGER = Logger.getLogger(Image.class.getName());
+
+    private final int[] pixelBuffer; // the source image's pixels
+    private final int sourceWidth; // also the distance in pixelBuffer between two vertically adjacent pixels
+    private final int sourceHeight;
+    private final int originRow; // source row of this image's top-left pixel (negative if padded)
+    private final int originCol; // source column of this image's top-left pixel (negative if padded)
     private final int width;
     private final int height;
+    private final ImageLoadMetrics loadMetrics; // null unless the source image was read from a file
 
     /**
      * Constructs an Image by reading a file.
@@ -25,17 +48,23 @@ public class Image {
      * @throws IOException if the file cannot be read.
      */
     public Image(String filename) throws IOException {
+        long readStart = System.nanoTime();
         BufferedImage im = ImageIO.read(new File(filename));
+        long conversionStart = System.nanoTime();
         this.width = im.getWidth();
         this.height = im.getHeight();
+        this.sourceWidth = this.width;
+        this.sourceHeight = this.height;
+        this.originRow = 0;
+        this.originCol = 0;
 
+        // read the raster's buffer directly if its layout is known, or else in a single bulk getRGB() call
+        ImageDecoder.Layout layout = ImageDecoder.getLayout(im);
+        this.pixelBuffer = ImageDecoder.decode(im, layout);
 
-        this.pixelArray = new Color[this.height][this.width];
-        for (int i = 0; i < this.height; i++) {
-            for (int j = 0; j < this.width; j++) {
-                this.pixelArray[i][j] = new Color(im.getRGB(j, i));
-            }
-        }
+        this.loadMetrics = new ImageLoadMetrics(layout.name(), (long) this.width * this.height,
+                conversionStart - readStart, System.nanoTime() - conversionStart);
+        LOGGER.fine(() -> filename + ": " + this.loadMetrics);
     }
 
     /**
@@ -46,9 +75,52 @@ public class Image {
      * @param height     the height of the image.
      */
     public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+        this(new int[width * height], width, height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                this.pixelBuffer[row * width + col] = pixelArray[row][col].getRGB();
+            }
+        }
+    }
+
+    /**
+     * Constructs an Image over a flat, row-major array of packed ARGB pixels. The array is used as is
+     * (not copied), so it should not be modified by the caller afterwards.
+     *
+     * @param pixelBuffer the packed pixels, of length width * height.
+     * @param width       the width of the image.
+     * @param height      the height of the image.
+     */
+    public Image(int[] pixelBuffer, int width, int height) {
+        this.pixelBuffer = pixelBuffer;
+        this.sourceWidth = width;
+        this.sourceHeight = height;
+        this.originRow = 0;
+        this.originCol = 0;
         this.width = width;
         this.height = height;
+        this.loadMetrics = null;
+    }
+
+    /**
+     * Constructs an Image viewing a rectangular window of another image, without copying any pixels.
+     * The window may exceed the other image's source bounds, in which case it is padded with white.
+     *
+     * @param parent the image to view.
+     * @param top    the row in parent of the window's top-left pixel (negative for padding above).
+     * @param left   the column in parent of the window's top-left pixel (negative for padding on the left).
+     * @param width  the width of the window.
+     * @param height the height of the window.
+     */
+    Image(Image parent, int top, int left, int width, int height) {
+        this.pixelBuffer = parent.pixelBuffer;
+        this.sourceWidth = parent.sourceWidth;
+        this.sourceHeight = parent.sourceHeight;
+        this.originRow = parent.originRow + top;
+        this.originCol = parent.originCol + left;
+        this.width = width;
+        this.height = height;
+        this.loadMetrics = parent.loadMetrics;
     }
 
     /**
@@ -69,15 +141,114 @@ public class Image {
         return height;
     }
 
+    /**
+     * Returns the timings of loading the image's source from a file.
+     *
+     * @return the load metrics, or null if the source image was not read from a file.
+     */
+    public ImageLoadMetrics getLoadMetrics() {
+        return this.loadMetrics;
+    }
+
     /**
      * Returns the color of a specific pixel.
+     * Kept for compatibility - a new Color object is created on every call, so hot loops should prefer
+     * getPackedPixel() or getRow().
      *
      * @param x the row index of the pixel (0-based).
      * @param y the column index of the pixel (0-based).
      * @return the Color object of the specified pixel.
      */
     public Color getPixel(int x, int y) {
-        return this.pixelArray[x][y];
+        return new Color(this.getPackedPixel(x, y));
+    }
+
+    /**
+     * Returns the packed ARGB value of a specific pixel.
+     *
+     * @param row the row index of the pixel (0-based).
+     * @param col the column index of the pixel (0-based).
+     * @return the pixel as 0xAARRGGBB.
+     */
+    public int getPackedPixel(int row, int col) {
+        if (row < this.getContentTop() || row >= this.getContentBottom() ||
+                col < this.getContentLeft() || col >= this.getContentRight()) {
+            return PADDING_COLOR;
+        }
+        return this.pixelBuffer[this.getBufferIndex(row, col)];
+    }
+
+    /**
+     * Copies a single row of packed ARGB pixels into the given buffer.
+     *
+     * @param row         the row index (0-based).
+     * @param destination the buffer to copy into, of length at least destOffset + width.
+     * @param destOffset  the index in destination of the row's first pixel.
+     */
+    public void getRow(int row, int[] destination, int destOffset) {
+        int contentLeft = this.getContentLeft();
+        int contentRight = this.getContentRight();
+        if (row < this.getContentTop() || row >= this.getContentBottom() || contentLeft == contentRight) {
+            Arrays.fill(destination, destOffset, destOffset + this.width, PADDING_COLOR);
+            return;
+        }
+
+        Arrays.fill(destination, destOffset, destOffset + contentLeft, PADDING_COLOR);
+        System.arraycopy(this.pixelBuffer, this.getBufferIndex(row, contentLeft),
+                destination, destOffset + contentLeft, contentRight - contentLeft);
+        Arrays.fill(destination, destOffset + contentRight, destOffset + this.width, PADDING_COLOR);
+    }
+
+    /**
+     * Gives direct access to the source pixels for the image package's bulk operations (padding, division
+     * and brightness), so they can work on the primitive buffer without per-pixel calls.
+     * Only the image's content pixels (see getContentTop()) are in the buffer - the rest are padding.
+     *
+     * @return the source image's flat, row-major pixel buffer (not a copy), shared by all of its windows.
+     */
+    int[] getPixelBuffer() {
+        return this.pixelBuffer;
+    }
+
+    /**
+     * @return the distance in the pixel buffer between two vertically adjacent pixels.
+     */
+    int getRowStride() {
+        return this.sourceWidth;
+    }
+
+    /**
+     * @param row the row index of a content pixel.
+     * @param col the column index of a content pixel.
+     * @return the index of the pixel in the pixel buffer.
+     */
+    int getBufferIndex(int row, int col) {
+        return (this.originRow + row) * this.sourceWidth + this.originCol + col;
+    }
+
+    /*
+     * The image's content is the rectangle of its pixels that lie within the source image, in the image's
+     * own coordinates (bottom and right are exclusive). All of the image's other pixels are padding.
+     */
+
+    // The first row of the image's content
+    int getContentTop() {
+        return Math.min(this.height, Math.max(0, -this.originRow));
+    }
+
+    // The row right after the last row of the image's content
+    int getContentBottom() {
+        return Math.max(this.getContentTop(), Math.min(this.height, this.sourceHeight - this.originRow));
+    }
+
+    // The first column of the image's content
+    int getContentLeft() {
+        return Math.min(this.width, Math.max(0, -this.originCol));
+    }
+
+    // The column right after the last column of the image's content
+    int getContentRight() {
+        return Math.max(this.getContentLeft(), Math.min(this.width, this.sourceWidth - this.originCol));
     }
 
     /**
@@ -87,14 +258,11 @@ public class Image {
      * @throws RuntimeException if an error occurs while writing the file.
      */
     public void saveImage(String fileName) {
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
-            }
+        BufferedImage bufferedImage = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+        int[] rowBuffer = new int[this.width];
+        for (int row = 0; row < this.height; row++) {
+            this.getRow(row, rowBuffer, 0);
+            bufferedImage.setRGB(0, row, this.width, 1, rowBuffer, 0, this.width);
         }
         File outputfile = new File(fileName + ".jpeg");
         try {
@@ -1,19 +1,39 @@
 package image;
 
-import java.awt.*;
-
 /**
  * This class provides methods for calculating the brightness of an image.
  * The brightness is determined by converting each pixel to grayscale and averaging
  * the grayscale values across the entire image.
+ * <p>
+ * Grayscale values are kept as integers scaled by GRAYSCALE_SCALE (the luminance factors 0.2126, 0.7152
+ * and 0.0722 are exact multiples of 1/10000), so sums over any number of pixels are exact and do not depend
+ * on the order in which pixels are added.
+ * <p>
+ * Rows of pixels are reduced by the GrayscaleKernel set with setGrayscaleKernel. The default ROW_BATCHED
+ * kernel is shaped so that the JIT vectorizes it; SCALAR is kept as a fallback (the Shell selects it with
+ * the ascii_art.grayscaleKernel system property) and as a baseline to compare against, in
+ * GrayscaleKernelBenchmark, and both give exactly the same values.
  *
  * @author Or Tarazi, Agam Hershko
  */
 public class ImageBrightness {
-    private static final double RED_FACTOR = 0.2126;
-    private static final double GREEN_FACTOR = 0.7152;
-    private static final double BLUE_FACTOR = 0.0722;
+    private static final int RED_FACTOR = 2126;
+    private static final int GREEN_FACTOR = 7152;
+    private static final int BLUE_FACTOR = 722;
+    private static final int GRAYSCALE_SCALE = RED_FACTOR + GREEN_FACTOR + BLUE_FACTOR;
     private static final int MAX_RGB_VALUE = 255;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_MASK = 0xFF;
+    // 255 * CHANNEL_SUM_BLOCK must fit in an int, for channel sums to be accumulated in int lanes
+    private static final int CHANNEL_SUM_BLOCK = 1 << 16;
+
+    private static volatile GrayscaleKernel grayscaleKernel = GrayscaleKernel.ROW_BATCHED;
+
+    /**
+     * The grayscale value of a padding pixel, scaled like the values returned by colorToGrayscale.
+     */
+    static final int PADDING_GRAYSCALE = colorToGrayscale(Image.PADDING_COLOR);
 
     /**
      * @param image calculates the grayscale value of each colored pixel, does an average of all grayscale
@@ -21,30 +41,124 @@ public class ImageBrightness {
      * @return the calculated brightness value of a sub-image
      */
     public static double calculateImageBrightness(Image image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        double grayScaleTotal = 0;
+        int[] pixels = image.getPixelBuffer();
+        int contentWidth = image.getContentRight() - image.getContentLeft();
+        long grayScaleTotal = 0;
+
+        // only the image's content is read - it may be a window of a larger buffer, so walk it row by row
+        for (int row = image.getContentTop(); row < image.getContentBottom(); row++) {
+            grayScaleTotal += sumRowGrayscale(pixels, image.getBufferIndex(row, image.getContentLeft()),
+                    contentWidth);
+        }
+
+        // every pixel out of the content is white padding, so its share is added analytically
+        long pixelsNumber = (long) image.getHeight() * image.getWidth();
+        long contentPixelsNumber = (long) (image.getContentBottom() - image.getContentTop()) * contentWidth;
+        grayScaleTotal += (pixelsNumber - contentPixelsNumber) * PADDING_GRAYSCALE;
+
+        return grayscaleSumToBrightness(grayScaleTotal, pixelsNumber);
+    }
+
+    /**
+     * Sets the kernel used to reduce rows of pixels to grayscale, for all images from now on.
+     *
+     * @param kernel the kernel to use.
+     */
+    public static void setGrayscaleKernel(GrayscaleKernel kernel) {
+        grayscaleKernel = kernel;
+    }
+
+    /**
+     * @return the kernel used to reduce rows of pixels to grayscale.
+     */
+    public static GrayscaleKernel getGrayscaleKernel() {
+        return grayscaleKernel;
+    }
 
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                grayScaleTotal += colorToGrayscale(image.getPixel(row, col));
+    /**
+     * Sums the scaled grayscale values of a row of pixels.
+     *
+     * @param pixels the buffer holding the row, packed as 0xAARRGGBB.
+     * @param offset the index of the row's first pixel in the buffer.
+     * @param length the number of pixels in the row.
+     * @return the sum of the pixels' grayscale values, scaled by GRAYSCALE_SCALE.
+     */
+    static long sumRowGrayscale(int[] pixels, int offset, int length) {
+        long grayScaleTotal = 0;
+        if (grayscaleKernel == GrayscaleKernel.SCALAR) {
+            for (int i = offset; i < offset + length; i++) {
+                grayScaleTotal += colorToGrayscale(pixels[i]);
+            }
+            return grayScaleTotal;
+        }
+
+        // the luminance is linear, so the channels are summed on their own and weighted once per block
+        for (int blockStart = offset; blockStart < offset + length; blockStart += CHANNEL_SUM_BLOCK) {
+            int blockEnd = Math.min(offset + length, blockStart + CHANNEL_SUM_BLOCK);
+            int redTotal = 0;
+            int greenTotal = 0;
+            int blueTotal = 0;
+            for (int i = blockStart; i < blockEnd; i++) {
+                int rgb = pixels[i];
+                redTotal += (rgb >>> RED_SHIFT) & CHANNEL_MASK;
+                greenTotal += (rgb >>> GREEN_SHIFT) & CHANNEL_MASK;
+                blueTotal += rgb & CHANNEL_MASK;
             }
+            grayScaleTotal += (long) redTotal * RED_FACTOR + (long) greenTotal * GREEN_FACTOR
+                    + (long) blueTotal * BLUE_FACTOR;
         }
+        return grayScaleTotal;
+    }
 
-        return grayScaleTotal / (height * width) / MAX_RGB_VALUE;
+    /**
+     * Converts a row of pixels to their scaled grayscale values.
+     *
+     * @param pixels       the buffer holding the row, packed as 0xAARRGGBB.
+     * @param offset       the index of the row's first pixel in the buffer.
+     * @param length       the number of pixels in the row.
+     * @param grayScaleRow the array to write the grayscale values to, from its start.
+     */
+    static void rowToGrayscale(int[] pixels, int offset, int length, int[] grayScaleRow) {
+        if (grayscaleKernel == GrayscaleKernel.SCALAR) {
+            for (int i = 0; i < length; i++) {
+                grayScaleRow[i] = colorToGrayscale(pixels[offset + i]);
+            }
+            return;
+        }
+
+        // converting in place, from index 0 and with unsigned shifts, is the loop shape the JIT vectorizes
+        System.arraycopy(pixels, offset, grayScaleRow, 0, length);
+        for (int i = 0; i < length; i++) {
+            int rgb = grayScaleRow[i];
+            grayScaleRow[i] = ((rgb >>> RED_SHIFT) & CHANNEL_MASK) * RED_FACTOR
+                    + ((rgb >>> GREEN_SHIFT) & CHANNEL_MASK) * GREEN_FACTOR
+                    + (rgb & CHANNEL_MASK) * BLUE_FACTOR;
+        }
+    }
+
+    /**
+     * Converts a sum of scaled grayscale values (as returned by colorToGrayscale) over a number of pixels
+     * to their average brightness, between 0 (black) and 1 (white).
+     *
+     * @param grayScaleTotal the sum of the scaled grayscale values.
+     * @param pixelsNumber   the number of pixels summed (may be fractional, for partly summed pixels).
+     * @return the average brightness of the pixels.
+     */
+    public static double grayscaleSumToBrightness(double grayScaleTotal, double pixelsNumber) {
+        return grayScaleTotal / (pixelsNumber * MAX_RGB_VALUE * GRAYSCALE_SCALE);
     }
 
     /**
      * uses a formula to calculate the gray-scale from an RGB color, and so converts a set of
      * Red-Green-Blue values to a single value of grayscale.
      *
-     * @param color an RGB color.
-     * @return grayscale value.
+     * @param rgb an RGB color, packed as 0xAARRGGBB.
+     * @return grayscale value, scaled by GRAYSCALE_SCALE.
      */
-    private static double colorToGrayscale(Color color) {
-        int red = color.getRed();
-        int green = color.getGreen();
-        int blue = color.getBlue();
+    static int colorToGrayscale(int rgb) {
+        int red = (rgb >> RED_SHIFT) & CHANNEL_MASK;
+        int green = (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
+        int blue = rgb & CHANNEL_MASK;
         return red * RED_FACTOR + green * GREEN_FACTOR + blue * BLUE_FACTOR;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,144 @@
+package image;
+
+/**
+ * Integral images (summed-area tables) of an image's red, green and blue channels, for finding the mean color
+ * of any rectangular region with four lookups per channel, like ImageIntegral finds its brightness.
+ * <p>
+ * To keep the tables at 4 bytes per channel per pixel, entries are ints that are allowed to overflow: a
+ * region's sum is the difference of its corners' entries, which modular arithmetic gets right as long as the
+ * sum itself fits in 32 unsigned bits - that is, for regions of up to MAX_EXACT_REGION_PIXELS content pixels
+ * (about 16.8 million). Larger regions are summed in bands of rows that each fit. The three channels of an
+ * entry are stored next to each other, so a region's corners are read from 4 places rather than 12.
+ * <p>
+ * Colors need far less precision than brightnesses, so regions are rounded to whole pixels (unlike
+ * ImageIntegral, which interpolates partial pixels). Padding around the content is white, and its share of
+ * a region's color is added analytically, like ImageIntegral does.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class ImageColorIntegral {
+    /**
+     * The largest number of content pixels whose channel sums are found with a single lookup per corner.
+     */
+    public static final long MAX_EXACT_REGION_PIXELS = 0xFFFFFFFFL / 255;
+
+    private static final int CHANNELS = 3;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RGB_MASK = 0xFFFFFF;
+    private static final int PADDING_RED = (Image.PADDING_COLOR >>> RED_SHIFT) & CHANNEL_MASK;
+    private static final int PADDING_GREEN = (Image.PADDING_COLOR >>> GREEN_SHIFT) & CHANNEL_MASK;
+    private static final int PADDING_BLUE = Image.PADDING_COLOR & CHANNEL_MASK;
+
+    private final int[] sumTable; // the (wrapping) sums of the channels of each entry, one after the other
+    private final int contentTop;
+    private final int contentLeft;
+    private final int contentHeight;
+    private final int contentWidth;
+    private final int tableWidth;
+
+    /**
+     * Builds the summed-area tables of the given image's channels.
+     *
+     * @param image the image to build the tables for (possibly a padded window of a smaller image).
+     */
+    public ImageColorIntegral(Image image) {
+        this.contentTop = image.getContentTop();
+        this.contentLeft = image.getContentLeft();
+        this.contentHeight = image.getContentBottom() - this.contentTop;
+        this.contentWidth = image.getContentRight() - this.contentLeft;
+        this.tableWidth = this.contentWidth + 1;
+        this.sumTable = new int[(this.contentHeight + 1) * this.tableWidth * CHANNELS];
+
+        int[] pixels = image.getPixelBuffer();
+        int tableRowLength = this.tableWidth * CHANNELS;
+        for (int row = 0; row < this.contentHeight; row++) {
+            int redSum = 0;
+            int greenSum = 0;
+            int blueSum = 0;
+            int pixelIndex = image.getBufferIndex(this.contentTop + row, this.contentLeft);
+            int entry = (row + 1) * tableRowLength + CHANNELS;
+            for (int col = 0; col < this.contentWidth; col++, pixelIndex++, entry += CHANNELS) {
+                int rgb = pixels[pixelIndex];
+                redSum += (rgb >>> RED_SHIFT) & CHANNEL_MASK;
+                greenSum += (rgb >>> GREEN_SHIFT) & CHANNEL_MASK;
+                blueSum += rgb & CHANNEL_MASK;
+                // the sums above this entry, plus the sums of this row up to (and including) this column
+                this.sumTable[entry] = this.sumTable[entry - tableRowLength] + redSum;
+                this.sumTable[entry + 1] = this.sumTable[entry + 1 - tableRowLength] + greenSum;
+                this.sumTable[entry + 2] = this.sumTable[entry + 2 - tableRowLength] + blueSum;
+            }
+        }
+    }
+
+    /**
+     * Calculates the mean color of a rectangular region of the image, rounded to whole pixels. The region may
+     * extend beyond the image's content, where it is treated as white padding.
+     *
+     * @param row          the row where the region starts.
+     * @param col          the column where the region starts.
+     * @param regionHeight the height of the region, in pixels.
+     * @param regionWidth  the width of the region, in pixels.
+     * @return the region's mean color, packed as 0xRRGGBB (white for a region of no whole pixels).
+     */
+    public int getRegionColor(double row, double col, double regionHeight, double regionWidth) {
+        long top = Math.round(row);
+        long bottom = Math.round(row + regionHeight);
+        long left = Math.round(col);
+        long right = Math.round(col + regionWidth);
+        long regionPixels = (bottom - top) * (right - left);
+        if (regionPixels == 0) {
+            return Image.PADDING_COLOR & RGB_MASK;
+        }
+
+        // clip the region to the content, in the tables' coordinates
+        int clippedTop = clip(top - this.contentTop, this.contentHeight);
+        int clippedBottom = clip(bottom - this.contentTop, this.contentHeight);
+        int clippedLeft = clip(left - this.contentLeft, this.contentWidth);
+        int clippedRight = clip(right - this.contentLeft, this.contentWidth);
+        int clippedWidth = clippedRight - clippedLeft;
+        long paddingPixels = regionPixels - (long) (clippedBottom - clippedTop) * clippedWidth;
+
+        // sum the content in bands of rows whose sums cannot overflow - almost always, a single band
+        int bandRows = (int) Math.max(1, MAX_EXACT_REGION_PIXELS / Math.max(1, clippedWidth));
+        long redSum = paddingPixels * PADDING_RED;
+        long greenSum = paddingPixels * PADDING_GREEN;
+        long blueSum = paddingPixels * PADDING_BLUE;
+        for (int bandTop = clippedTop; bandTop < clippedBottom; bandTop += bandRows) {
+            int bandBottom = (int) Math.min(clippedBottom, (long) bandTop + bandRows);
+            int topLeft = (bandTop * this.tableWidth + clippedLeft) * CHANNELS;
+            int bottomLeft = (bandBottom * this.tableWidth + clippedLeft) * CHANNELS;
+            int rightOffset = clippedWidth * CHANNELS;
+            redSum += this.getSum(topLeft, bottomLeft, rightOffset);
+            greenSum += this.getSum(topLeft + 1, bottomLeft + 1, rightOffset);
+            blueSum += this.getSum(topLeft + 2, bottomLeft + 2, rightOffset);
+        }
+        return getMean(redSum, regionPixels) << RED_SHIFT | getMean(greenSum, regionPixels) << GREEN_SHIFT
+                | getMean(blueSum, regionPixels);
+    }
+
+    /**
+     * Sums a channel over a region of the content whose sum fits in 32 unsigned bits.
+     *
+     * @param topLeft     the index of the channel's entry at the region's top-left corner.
+     * @param bottomLeft  the index of the channel's entry at the region's bottom-left corner.
+     * @param rightOffset the distance from the left corners' entries to the right corners' entries.
+     * @return the sum of the channel's values over the region.
+     */
+    private long getSum(int topLeft, int bottomLeft, int rightOffset) {
+        int sum = this.sumTable[bottomLeft + rightOffset] - this.sumTable[bottomLeft]
+                - this.sumTable[topLeft + rightOffset] + this.sumTable[topLeft];
+        return Integer.toUnsignedLong(sum); // exact, even if the entries have wrapped around
+    }
+
+    // Divides a channel's sum by the number of pixels it is the sum of, rounded to the nearest value
+    private static int getMean(long sum, long pixels) {
+        return (int) ((sum + pixels / 2) / pixels);
+    }
+
+    // Clips a coordinate of the content to the range [0, size]
+    private static int clip(long coordinate, int size) {
+        return (int) Math.max(0, Math.min(size, coordinate));
+    }
+}
@@ -0,0 +1,169 @@
+package image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Converts a decoded BufferedImage to a flat, row-major array of packed ARGB pixels.
+ * <p>
+ * BufferedImage.getRGB() converts every pixel through the image's color model. For the layouts image
+ * readers produce most often, the pixels are instead read straight from the raster's DataBuffer, in a single
+ * tight loop per image: packed int RGB is copied, interleaved 8-bit BGR is repacked, and 8-bit gray is
+ * mapped through a 256-entry table built from the color model (so it matches getRGB() exactly, including
+ * the gray color space's conversion to sRGB). Any other layout falls back to a bulk getRGB() call.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+class ImageDecoder {
+    private static final int OPAQUE_ALPHA = 0xFF000000;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int BGR_PIXEL_STRIDE = 3;
+    private static final int[] BGR_BAND_OFFSETS = {2, 1, 0}; // red, green and blue offsets within a pixel
+    private static final int GRAY_LEVELS = 256;
+
+    /**
+     * The pixel layouts the decoder recognizes.
+     */
+    enum Layout {
+        /**
+         * Opaque sRGB pixels, packed one per int (BufferedImage.TYPE_INT_RGB).
+         */
+        INT_RGB,
+
+        /**
+         * Opaque sRGB pixels, interleaved as blue, green and red bytes (BufferedImage.TYPE_3BYTE_BGR).
+         */
+        BYTE_BGR,
+
+        /**
+         * Gray pixels, one byte per pixel (BufferedImage.TYPE_BYTE_GRAY).
+         */
+        BYTE_GRAY,
+
+        /**
+         * Any other layout, converted by BufferedImage.getRGB().
+         */
+        GENERIC
+    }
+
+    /**
+     * Finds the layout of an image's pixels. A layout other than GENERIC is only returned if the raster's
+     * buffer holds exactly the image's pixels, row after row with no gaps, so it can be read directly.
+     *
+     * @param image the decoded image.
+     * @return the layout of the image's pixels.
+     */
+    static Layout getLayout(BufferedImage image) {
+        Raster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0 ||
+                dataBuffer.getNumBanks() != 1 || dataBuffer.getOffset() != 0) {
+            return Layout.GENERIC;
+        }
+
+        boolean isSRGB = image.getColorModel().getColorSpace().isCS_sRGB();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+                if (isSRGB && sampleModel instanceof SinglePixelPackedSampleModel && image.getWidth() ==
+                        ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride()) {
+                    return Layout.INT_RGB;
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                if (isSRGB && isInterleaved(sampleModel, image.getWidth(), BGR_PIXEL_STRIDE) && Arrays.equals(
+                        ((ComponentSampleModel) sampleModel).getBandOffsets(), BGR_BAND_OFFSETS)) {
+                    return Layout.BYTE_BGR;
+                }
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                if (isInterleaved(sampleModel, image.getWidth(), 1)) {
+                    return Layout.BYTE_GRAY;
+                }
+                break;
+            default:
+                break;
+        }
+        return Layout.GENERIC;
+    }
+
+    /**
+     * Converts an image's pixels to packed ARGB, reading them as the given layout.
+     *
+     * @param image  the decoded image.
+     * @param layout the layout of the image's pixels, as found by getLayout().
+     * @return the image's pixels, row-major, packed as 0xAARRGGBB.
+     */
+    static int[] decode(BufferedImage image, Layout layout) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        switch (layout) {
+            case INT_RGB:
+                return decodeIntRGB(((DataBufferInt) dataBuffer).getData(), width * height);
+            case BYTE_BGR:
+                return decodeByteBGR(((DataBufferByte) dataBuffer).getData(), width * height);
+            case BYTE_GRAY:
+                return decodeByteGray(((DataBufferByte) dataBuffer).getData(), width * height,
+                        image.getColorModel());
+            default:
+                return image.getRGB(0, 0, width, height, null, 0, width);
+        }
+    }
+
+    // Copies packed RGB pixels, making them opaque like getRGB() does
+    private static int[] decodeIntRGB(int[] data, int pixelsNumber) {
+        int[] pixels = new int[pixelsNumber];
+        for (int i = 0; i < pixelsNumber; i++) {
+            pixels[i] = data[i] | OPAQUE_ALPHA;
+        }
+        return pixels;
+    }
+
+    // Repacks interleaved blue, green and red bytes to opaque packed pixels
+    private static int[] decodeByteBGR(byte[] data, int pixelsNumber) {
+        int[] pixels = new int[pixelsNumber];
+        for (int i = 0, dataIndex = 0; i < pixelsNumber; i++, dataIndex += BGR_PIXEL_STRIDE) {
+            pixels[i] = OPAQUE_ALPHA
+                    | (data[dataIndex + BGR_BAND_OFFSETS[0]] & CHANNEL_MASK) << RED_SHIFT
+                    | (data[dataIndex + BGR_BAND_OFFSETS[1]] & CHANNEL_MASK) << GREEN_SHIFT
+                    | (data[dataIndex + BGR_BAND_OFFSETS[2]] & CHANNEL_MASK);
+        }
+        return pixels;
+    }
+
+    // Maps gray bytes through the color model, converted once for each of the 256 gray levels
+    private static int[] decodeByteGray(byte[] data, int pixelsNumber, ColorModel colorModel) {
+        int[] grayLevelColors = new int[GRAY_LEVELS];
+        for (int grayLevel = 0; grayLevel < GRAY_LEVELS; grayLevel++) {
+            // the same data elements path BufferedImage.getRGB() converts each pixel through
+            grayLevelColors[grayLevel] = colorModel.getRGB(new byte[]{(byte) grayLevel});
+        }
+
+        int[] pixels = new int[pixelsNumber];
+        for (int i = 0; i < pixelsNumber; i++) {
+            pixels[i] = grayLevelColors[data[i] & CHANNEL_MASK];
+        }
+        return pixels;
+    }
+
+    // Checks if a sample model stores pixels of the given stride contiguously, rows without gaps
+    private static boolean isInterleaved(SampleModel sampleModel, int width, int pixelStride) {
+        if (!(sampleModel instanceof ComponentSampleModel)) {
+            return false;
+        }
+        ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+        return componentSampleModel.getPixelStride() == pixelStride &&
+                componentSampleModel.getScanlineStride() == width * pixelStride;
+    }
+}
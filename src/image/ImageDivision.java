@@ -1,10 +1,12 @@
 package image;
 
-import java.awt.*;
-
 /**
  * Provides functionality to divide an image into smaller sub-images based on a given resolution.
  * The resolution determines the number of sub-images in a row.
+ * <p>
+ * Dividing never copies pixels: the sub-images are views over the original image's buffer, and callers
+ * that only need the cells' geometry (e.g. to read brightnesses from an ImageIntegral) can use the
+ * SubImageGrid descriptor directly, without creating any sub-image objects.
  *
  * @author Agam Hershko and Or Tarazi
  */
@@ -15,10 +17,10 @@ public class ImageDivision {
      *
      * @param image      the image to be divided.
      * @param resolution the number of sub-images in a single row.
-     * @return a 2D array of sub-images.
+     * @return a 2D array of sub-images, each a view of the given image's pixels.
      */
     public static Image[][] divideToImages(Image image, int resolution) {
-        int subPicturesSize = getSubPicturesSize(image, resolution);
+        int subPicturesSize = image.getWidth() / resolution;
         int rowsOfSubPictures = image.getHeight() / subPicturesSize;
 
         // Create a 2D array to store sub-images
@@ -28,13 +30,62 @@ public class ImageDivision {
         return subImages;
     }
 
-    // Calculates the size of each sub-image based on the resolution
-    private static int getSubPicturesSize(Image image, int resolution) {
-        return image.getWidth() / resolution;
+    /**
+     * Describes the division of an image of the given dimensions into sub-images based on the specified
+     * resolution. We assume the image dimensions are divisible by the resolution (assume resolution validity)
+     *
+     * @param imageWidth  the width of the image to be divided.
+     * @param imageHeight the height of the image to be divided.
+     * @param resolution  the number of sub-images in a single row.
+     * @return the grid of sub-images.
+     */
+    public static SubImageGrid divideToGrid(int imageWidth, int imageHeight, int resolution) {
+        int subPicturesSize = imageWidth / resolution;
+        int rowsOfSubPictures = imageHeight / subPicturesSize;
+        return new SubImageGrid(rowsOfSubPictures, resolution, subPicturesSize);
+    }
+
+    /**
+     * Describes the division of an image of the given dimensions, padded as ImagePadding pads it, into
+     * sub-images based on the specified resolution. The grid is given in the unpadded image's coordinates,
+     * so its cells over the padding start at negative coordinates.
+     *
+     * @param imageWidth  the width of the (unpadded) image to be divided.
+     * @param imageHeight the height of the (unpadded) image to be divided.
+     * @param resolution  the number of sub-images in a single row of the padded image.
+     * @return the grid of sub-images.
+     */
+    public static SubImageGrid divideToPaddedGrid(int imageWidth, int imageHeight, int resolution) {
+        int paddedImageWidth = ImagePadding.getNextPower(imageWidth);
+        int paddedImageHeight = ImagePadding.getNextPower(imageHeight);
+        int subPicturesSize = paddedImageWidth / resolution;
+        int rowsOfSubPictures = paddedImageHeight / subPicturesSize;
+        return new SubImageGrid(rowsOfSubPictures, resolution,
+                -ImagePadding.getPaddingSize(imageHeight, paddedImageHeight),
+                -ImagePadding.getPaddingSize(imageWidth, paddedImageWidth),
+                subPicturesSize, subPicturesSize);
     }
 
     /**
-     * Fills the 2D array of sub-images by extracting pixels from the original image.
+     * Describes the division of an image of the given dimensions, without any padding, into exactly
+     * `resolution` columns of sub-images. The image width does not have to be divisible by the resolution:
+     * sub-images are as square as possible, their sizes are fractions of pixels, and the number of rows is
+     * the one that best fits the image's aspect ratio.
+     *
+     * @param imageWidth  the width of the image to be divided.
+     * @param imageHeight the height of the image to be divided.
+     * @param resolution  the number of sub-images in a single row.
+     * @return the grid of sub-images.
+     */
+    public static SubImageGrid divideToExactGrid(int imageWidth, int imageHeight, int resolution) {
+        double subPicturesWidth = (double) imageWidth / resolution;
+        int rowsOfSubPictures = Math.max(1, (int) Math.round(imageHeight / subPicturesWidth));
+        double subPicturesHeight = (double) imageHeight / rowsOfSubPictures;
+        return new SubImageGrid(rowsOfSubPictures, resolution, 0, 0, subPicturesHeight, subPicturesWidth);
+    }
+
+    /**
+     * Fills the 2D array of sub-images with views of the original image.
      *
      * @param image           the original image to divide.
      * @param subImages       the 2D array to store the sub-images.
@@ -49,7 +100,8 @@ public class ImageDivision {
     }
 
     /**
-     * Creates a sub-image by extracting a square of pixels from the original image.
+     * Creates a sub-image viewing a square of pixels of the original image. No pixels are copied - the
+     * view only records where the square starts in the original image.
      *
      * @param image           the original image.
      * @param subPicturesSize the size of each sub-image.
@@ -58,15 +110,7 @@ public class ImageDivision {
      * @return the sub-image as a new image object.
      */
     private static Image createSubImage(Image image, int subPicturesSize, int subImageRow, int subImageCol) {
-        Color[][] subImage = new Color[subPicturesSize][subPicturesSize];
-        for (int i = 0; i < subImage.length; i++) {
-            for (int j = 0; j < subImage[i].length; j++) {
-                int imagePixelRow = subImageRow * subPicturesSize + i;
-                int imagePixelCol = subImageCol * subPicturesSize + j;
-                subImage[i][j] = image.getPixel(imagePixelRow, imagePixelCol);
-            }
-        }
-
-        return new Image(subImage, subImage.length, subImage[0].length);
+        return new Image(image, subImageRow * subPicturesSize, subImageCol * subPicturesSize,
+                subPicturesSize, subPicturesSize);
     }
 }
@@ -0,0 +1,339 @@
+package image;
+
+import java.util.Arrays;
+
+/**
+ * An integral image (summed-area table) of an image's grayscale values.
+ * The table is built once, in a single pass over the image's rows (each converted to grayscale by
+ * ImageBrightness's current GrayscaleKernel), and from then on the average brightness of
+ * any rectangular region - at any resolution - is found with four lookups, regardless of the region's size.
+ * <p>
+ * Only the image's content (its pixels within the source image) is tabulated: entry (row, col) of the table
+ * holds the sum of the scaled grayscale values of all content pixels above and to the left of it, so the
+ * table has one more row and one more column than the content. Padding around the content is white, so its
+ * share of a region's brightness is added analytically from the number of padding pixels in the region.
+ * <p>
+ * Sums of scaled grayscale values need up to 56 bits for a large image, so a plain table takes 8 bytes (a
+ * long) per pixel - twice the image's own packed pixels. Tables of up to FLAT_TABLE_MAX_ENTRIES entries
+ * (64MB) are kept plain, as a single read per entry is the fastest. Larger tables are split to tiles of
+ * TILE_SIZE x TILE_SIZE entries instead: each entry is stored as its sum within its tile, which always fits
+ * in 32 unsigned bits (an int), and the exact sums along the tiles' top rows and left columns are kept as
+ * longs, one row of entries per band of TILE_SIZE rows and one entry per tile per row. An entry is then the
+ * sum of three of those values, and the table takes about 4.5 bytes per pixel instead of 8 - for a 24
+ * megapixel image, about 110MB instead of 192MB - at the cost of three reads per entry instead of one, which
+ * makes building the table and calculating brightnesses that the memento misses up to about twice as slow.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class ImageIntegral {
+    private static final int TILE_SHIFT = 5;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT; // at most 42 keeps a tile's sums within 32 bits
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final long UNSIGNED_INT_MASK = 0xFFFFFFFFL;
+    private static final long FLAT_TABLE_MAX_ENTRIES = 1 << 23; // 8M entries, 64MB as longs
+
+    private final long[] flatSums; // the entries, row by row, or null if the table is tiled
+    private final int[] tileSums; // each entry's sum within its tile, unsigned, row by row
+    private final long[] bandSums; // the entries of the top row of each band of tiles, band by band
+    private final long[] tileColumnSums; // the entries of each tile's left column, less its band's top row
+    private final int tileColumns;
+    private final int width;
+    private final int height;
+    private final int contentTop;
+    private final int contentLeft;
+    private final int contentHeight;
+    private final int contentWidth;
+    private final int tableWidth;
+
+    /**
+     * Builds the summed-area table of the given image.
+     *
+     * @param image the image to build the table for (possibly a padded window of a smaller image).
+     */
+    public ImageIntegral(Image image) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.contentTop = image.getContentTop();
+        this.contentLeft = image.getContentLeft();
+        this.contentHeight = image.getContentBottom() - this.contentTop;
+        this.contentWidth = image.getContentRight() - this.contentLeft;
+        this.tableWidth = this.contentWidth + 1;
+        boolean isFlat = (long) (this.contentHeight + 1) * this.tableWidth <= FLAT_TABLE_MAX_ENTRIES;
+        this.tileColumns = (this.contentWidth >> TILE_SHIFT) + 1;
+        this.flatSums = isFlat ? new long[(this.contentHeight + 1) * this.tableWidth] : null;
+        this.tileSums = isFlat ? null : new int[(this.contentHeight + 1) * this.tableWidth];
+        this.bandSums = isFlat ? null : new long[((this.contentHeight >> TILE_SHIFT) + 1) * this.tableWidth];
+        this.tileColumnSums = isFlat ? null : new long[(this.contentHeight + 1) * this.tileColumns];
+
+        // the table's entries are calculated a row at a time, and stored as they are or split to the tiles
+        int[] pixels = image.getPixelBuffer();
+        int[] grayScaleRow = new int[this.contentWidth];
+        long[] entries = new long[this.tableWidth];
+        for (int row = 0; row < this.contentHeight; row++) {
+            long rowSum = 0;
+            int pixelOffset = image.getBufferIndex(this.contentTop + row, this.contentLeft);
+            ImageBrightness.rowToGrayscale(pixels, pixelOffset, this.contentWidth, grayScaleRow);
+            for (int col = 0; col < this.contentWidth; col++) {
+                rowSum += grayScaleRow[col];
+                // the sum above this entry, plus the sum of this row up to (and including) this column
+                entries[col + 1] += rowSum;
+            }
+            if (isFlat) {
+                System.arraycopy(entries, 0, this.flatSums, (row + 1) * this.tableWidth, this.tableWidth);
+            } else {
+                this.storeRow(row + 1, entries);
+            }
+        }
+    }
+
+    /**
+     * Splits a row of the table's entries to the tiled tables (of a table too large to keep plain).
+     *
+     * @param row     the row of the table.
+     * @param entries the row's entries.
+     */
+    private void storeRow(int row, long[] entries) {
+        int bandOffset = (row >> TILE_SHIFT) * this.tableWidth;
+        if ((row & TILE_MASK) == 0) {
+            System.arraycopy(entries, 0, this.bandSums, bandOffset, this.tableWidth);
+        }
+        int tileColumnOffset = row * this.tileColumns;
+        for (int tileColumn = 0; tileColumn < this.tileColumns; tileColumn++) {
+            int tileLeft = tileColumn << TILE_SHIFT;
+            this.tileColumnSums[tileColumnOffset + tileColumn] =
+                    entries[tileLeft] - this.bandSums[bandOffset + tileLeft];
+        }
+        int tableOffset = row * this.tableWidth;
+        for (int col = 0; col < this.tableWidth; col++) {
+            int tileLeft = col & ~TILE_MASK;
+            // the sum within the tile: the entry, less the sums above the tile and to the left of it
+            this.tileSums[tableOffset + col] = (int) (entries[col] - this.bandSums[bandOffset + col]
+                    - entries[tileLeft] + this.bandSums[bandOffset + tileLeft]);
+        }
+    }
+
+    /**
+     * Returns an entry of the table: the sum of the scaled grayscale values of all content pixels above and
+     * to the left of it.
+     *
+     * @param row the entry's row.
+     * @param col the entry's column.
+     * @return the entry's sum.
+     */
+    private long getEntry(int row, int col) {
+        if (this.flatSums != null) {
+            return this.flatSums[row * this.tableWidth + col];
+        }
+        return this.bandSums[(row >> TILE_SHIFT) * this.tableWidth + col]
+                + this.tileColumnSums[row * this.tileColumns + (col >> TILE_SHIFT)]
+                + (this.tileSums[row * this.tableWidth + col] & UNSIGNED_INT_MASK);
+    }
+
+    /**
+     * Returns the width of the image the table was built for.
+     *
+     * @return the width of the image, in pixels.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Returns the height of the image the table was built for.
+     *
+     * @return the height of the image, in pixels.
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Calculates the average brightness of a rectangular region of the image in constant time.
+     * The region may extend beyond the image's content, where it is treated as white padding, and its
+     * bounds may fall in the middle of pixels, in which case each edge pixel contributes in proportion to
+     * the part of it that lies within the region.
+     *
+     * @param row          the row where the region starts.
+     * @param col          the column where the region starts.
+     * @param regionHeight the height of the region, in pixels.
+     * @param regionWidth  the width of the region, in pixels.
+     * @return the region's brightness, between 0 (black) and 1 (white).
+     */
+    public double getRegionBrightness(double row, double col, double regionHeight, double regionWidth) {
+        return ImageBrightness.grayscaleSumToBrightness(
+                this.getRegionSum(row, col, regionHeight, regionWidth), regionHeight * regionWidth);
+    }
+
+    /**
+     * Calculates the sum of the scaled grayscale values of a rectangular region of the image in constant
+     * time, like getRegionBrightness does. For regions of whole pixels the sum is an exact integer, so the
+     * sums of adjacent regions add up exactly to the sum of their union.
+     *
+     * @param row          the row where the region starts.
+     * @param col          the column where the region starts.
+     * @param regionHeight the height of the region, in pixels.
+     * @param regionWidth  the width of the region, in pixels.
+     * @return the sum of the region's grayscale values, to be converted to a brightness by
+     * ImageBrightness.grayscaleSumToBrightness.
+     */
+    public double getRegionSum(double row, double col, double regionHeight, double regionWidth) {
+        // clip the region to the content, in the table's coordinates
+        double top = clip(row - this.contentTop, this.contentHeight);
+        double bottom = clip(row + regionHeight - this.contentTop, this.contentHeight);
+        double left = clip(col - this.contentLeft, this.contentWidth);
+        double right = clip(col + regionWidth - this.contentLeft, this.contentWidth);
+
+        double regionPixels = regionHeight * regionWidth;
+        double contentPixels = (bottom - top) * (right - left);
+        return this.getSum(bottom, right) - this.getSum(bottom, left)
+                - this.getSum(top, right) + this.getSum(top, left)
+                + (regionPixels - contentPixels) * ImageBrightness.PADDING_GRAYSCALE;
+    }
+
+    /**
+     * Calculates the grayscale sums of a rectangular region's sub-regions, for the region divided to an equal
+     * grid of divisions x divisions sub-regions. Like getRegionSum, but each corner shared by neighboring
+     * sub-regions is looked up once - (divisions + 1)^2 lookups instead of 4 per sub-region.
+     *
+     * @param row          the row where the region starts.
+     * @param col          the column where the region starts.
+     * @param regionHeight the height of the region, in pixels.
+     * @param regionWidth  the width of the region, in pixels.
+     * @param divisions    the number of sub-regions along each side of the region.
+     * @param sums         the array to fill with the sub-regions' sums, row by row (at least divisions^2
+     *                     long).
+     */
+    public void getSubRegionSums(double row, double col, double regionHeight, double regionWidth,
+                                 int divisions, double[] sums) {
+        double subRegionHeight = regionHeight / divisions;
+        double subRegionWidth = regionWidth / divisions;
+        if (this.isPaddingRegion(row, col, regionHeight, regionWidth)) {
+            Arrays.fill(sums, 0, divisions * divisions,
+                    subRegionHeight * subRegionWidth * ImageBrightness.PADDING_GRAYSCALE);
+            return;
+        }
+        if (this.isWholePixelContentRegion(row, col, regionHeight, regionWidth) &&
+                subRegionHeight == (int) subRegionHeight && subRegionWidth == (int) subRegionWidth) {
+            this.getWholePixelSubRegionSums((int) row - this.contentTop, (int) col - this.contentLeft,
+                    (int) subRegionHeight, (int) subRegionWidth, divisions, sums);
+            return;
+        }
+
+        double[] lefts = new double[divisions + 1];
+        for (int i = 0; i <= divisions; i++) {
+            lefts[i] = clip(col + i * subRegionWidth - this.contentLeft, this.contentWidth);
+        }
+
+        // the sums above and to the left of the corners, a line of corners at a time
+        double[] upperCorners = new double[divisions + 1];
+        double[] lowerCorners = new double[divisions + 1];
+        double top = clip(row - this.contentTop, this.contentHeight);
+        for (int i = 0; i <= divisions; i++) {
+            upperCorners[i] = this.getSum(top, lefts[i]);
+        }
+        for (int subRow = 0; subRow < divisions; subRow++) {
+            double bottom = clip(row + (subRow + 1) * subRegionHeight - this.contentTop, this.contentHeight);
+            for (int i = 0; i <= divisions; i++) {
+                lowerCorners[i] = this.getSum(bottom, lefts[i]);
+            }
+            for (int subCol = 0; subCol < divisions; subCol++) {
+                double paddingPixels = subRegionHeight * subRegionWidth -
+                        (bottom - top) * (lefts[subCol + 1] - lefts[subCol]);
+                sums[subRow * divisions + subCol] = lowerCorners[subCol + 1] - lowerCorners[subCol]
+                        - upperCorners[subCol + 1] + upperCorners[subCol]
+                        + paddingPixels * ImageBrightness.PADDING_GRAYSCALE;
+            }
+            double[] corners = upperCorners;
+            upperCorners = lowerCorners;
+            lowerCorners = corners;
+            top = bottom;
+        }
+    }
+
+    /**
+     * Calculates the sums of sub-regions of whole pixels within the content straight from the table, with
+     * no clipping, interpolation or padding.
+     *
+     * @param top             the row where the region starts, in the table's coordinates.
+     * @param left            the column where the region starts, in the table's coordinates.
+     * @param subRegionHeight the height of each sub-region, in pixels.
+     * @param subRegionWidth  the width of each sub-region, in pixels.
+     * @param divisions       the number of sub-regions along each side of the region.
+     * @param sums            the array to fill with the sub-regions' sums, row by row.
+     */
+    private void getWholePixelSubRegionSums(int top, int left, int subRegionHeight, int subRegionWidth,
+                                            int divisions, double[] sums) {
+        // each corner is read once: a sub-region's sum is the difference between its lower and upper lines'
+        // differences across it
+        long[] upperCorners = new long[divisions + 1];
+        for (int i = 0; i <= divisions; i++) {
+            upperCorners[i] = this.getEntry(top, left + i * subRegionWidth);
+        }
+        for (int subRow = 0; subRow < divisions; subRow++) {
+            int lowerRow = top + (subRow + 1) * subRegionHeight;
+            long lowerCorner = this.getEntry(lowerRow, left);
+            long upperCorner = upperCorners[0];
+            upperCorners[0] = lowerCorner;
+            for (int subCol = 0; subCol < divisions; subCol++) {
+                long nextLowerCorner = this.getEntry(lowerRow, left + (subCol + 1) * subRegionWidth);
+                long nextUpperCorner = upperCorners[subCol + 1];
+                sums[subRow * divisions + subCol] =
+                        nextLowerCorner - lowerCorner - nextUpperCorner + upperCorner;
+                upperCorners[subCol + 1] = nextLowerCorner;
+                lowerCorner = nextLowerCorner;
+                upperCorner = nextUpperCorner;
+            }
+        }
+    }
+
+    // Checks if a region lies entirely outside the content, in the padding
+    private boolean isPaddingRegion(double row, double col, double regionHeight, double regionWidth) {
+        return row >= this.contentTop + this.contentHeight || row + regionHeight <= this.contentTop ||
+                col >= this.contentLeft + this.contentWidth || col + regionWidth <= this.contentLeft;
+    }
+
+    // Checks if a region starts on a whole pixel and lies entirely within the content
+    private boolean isWholePixelContentRegion(double row, double col, double regionHeight,
+                                              double regionWidth) {
+        return row == (int) row && col == (int) col && row >= this.contentTop && col >= this.contentLeft &&
+                row + regionHeight <= this.contentTop + this.contentHeight &&
+                col + regionWidth <= this.contentLeft + this.contentWidth;
+    }
+
+    /**
+     * Returns the sum of the grayscale values above and to the left of a point of the content.
+     * The image is constant within each pixel, so between table entries that sum is exactly the bilinear
+     * interpolation of the four surrounding entries. On whole-pixel points it is the table entry itself,
+     * which keeps whole-pixel regions exact.
+     *
+     * @param row the point's row, in the table's coordinates.
+     * @param col the point's column, in the table's coordinates.
+     * @return the sum of the grayscale values above and to the left of the point.
+     */
+    private double getSum(double row, double col) {
+        int tableRow = (int) row;
+        int tableCol = (int) col;
+        double rowFraction = row - tableRow;
+        double colFraction = col - tableCol;
+
+        double sum = this.interpolateRow(tableRow, tableCol, colFraction);
+        if (rowFraction > 0) {
+            sum += rowFraction * (this.interpolateRow(tableRow + 1, tableCol, colFraction) - sum);
+        }
+        return sum;
+    }
+
+    // Interpolates between a table entry and the entry to its right
+    private double interpolateRow(int row, int col, double colFraction) {
+        long entry = this.getEntry(row, col);
+        if (colFraction > 0) {
+            return entry + colFraction * (this.getEntry(row, col + 1) - entry);
+        }
+        return entry;
+    }
+
+    // Clips a coordinate of the content to the range [0, size]
+    private static double clip(double coordinate, int size) {
+        return Math.max(0, Math.min(size, coordinate));
+    }
+}
@@ -0,0 +1,71 @@
+package image;
+
+/**
+ * Timings of loading an image from a file: reading (decoding the file's format to a BufferedImage), and
+ * converting the decoded pixels to the Image's packed pixel buffer.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class ImageLoadMetrics {
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double PIXELS_PER_MEGAPIXEL = 1e6;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final String layout;
+    private final long pixelsNumber;
+    private final long readNanos;
+    private final long conversionNanos;
+
+    /**
+     * Constructs a new metrics record.
+     *
+     * @param layout          the name of the decoded pixels' layout, which determines how they were
+     *                        converted.
+     * @param pixelsNumber    the number of pixels loaded.
+     * @param readNanos       the time it took to read the file, in nanoseconds.
+     * @param conversionNanos the time it took to convert the pixels, in nanoseconds.
+     */
+    ImageLoadMetrics(String layout, long pixelsNumber, long readNanos, long conversionNanos) {
+        this.layout = layout;
+        this.pixelsNumber = pixelsNumber;
+        this.readNanos = readNanos;
+        this.conversionNanos = conversionNanos;
+    }
+
+    /**
+     * @return the name of the decoded pixels' layout (e.g. BYTE_BGR, or GENERIC for a getRGB() conversion).
+     */
+    public String getLayout() {
+        return this.layout;
+    }
+
+    /**
+     * @return the number of pixels loaded.
+     */
+    public long getPixelsNumber() {
+        return this.pixelsNumber;
+    }
+
+    /**
+     * @return the time it took to read the file, in nanoseconds.
+     */
+    public long getReadNanos() {
+        return this.readNanos;
+    }
+
+    /**
+     * @return the time it took to convert the pixels, in nanoseconds.
+     */
+    public long getConversionNanos() {
+        return this.conversionNanos;
+    }
+
+    @Override
+    public String toString() {
+        long totalNanos = this.readNanos + this.conversionNanos;
+        return String.format("%.1f MP loaded in %.1f ms (read %.1f ms, %s conversion %.1f ms), %.1f MP/s",
+                this.pixelsNumber / PIXELS_PER_MEGAPIXEL, totalNanos / NANOS_PER_MILLI,
+                this.readNanos / NANOS_PER_MILLI, this.layout, this.conversionNanos / NANOS_PER_MILLI,
+                this.pixelsNumber / PIXELS_PER_MEGAPIXEL / (Math.max(1, totalNanos) / NANOS_PER_SECOND));
+    }
+}
@@ -1,13 +1,14 @@
 package image;
 
-import java.awt.*;
-
 /**
  * The ImagePadding class provides functionality to pad an image to the nearest power of two.
  * It calculates the required padding size for both dimensions (width and height) and then
  * applies the padding, filling the padded areas with a white color.
  * This class helps in preparing images for processing that require dimensions that are powers of two,
  * such as some image processing algorithms or graphical applications that benefit from power-of-two sizes.
+ * <p>
+ * Padding is virtual: the padded image is a window over the original image's pixels that reads white
+ * outside of the original's bounds, so no padded copy is ever allocated.
  *
  * @author: Agam Hershko and Or Tarazi
  */
@@ -18,7 +19,7 @@ public class ImagePadding {
      * Pads the image to the next power of two in both dimensions.
      *
      * @param image The image to pad.
-     * @return A new padded image.
+     * @return A padded view of the image, sharing the image's pixels.
      */
     public static Image padImage(Image image) {
         int paddedImageHeight = getNextPower(image.getHeight());
@@ -27,17 +28,12 @@ public class ImagePadding {
         int paddingSizeHeight = getPaddingSize(image.getHeight(), paddedImageHeight);
         int paddingSizeWidth = getPaddingSize(image.getWidth(), paddedImageWidth);
 
-        Color[][] paddedPixelMatrix = new Color[paddedImageHeight][paddedImageWidth];
-
-        // Fill the padded pixel matrix with padding color (white)
-        fillPaddedPixelMatrix(paddedPixelMatrix, image, paddingSizeHeight, paddingSizeWidth);
-
-        // Create and return the padded image
-        return new Image(paddedPixelMatrix, paddedImageWidth, paddedImageHeight);
+        // The original image sits at the center of the padded window, and the rest of it reads as white
+        return new Image(image, -paddingSizeHeight, -paddingSizeWidth, paddedImageWidth, paddedImageHeight);
     }
 
     // Finds the next power of two greater than or equal to the given number
-    private static int getNextPower(int number) {
+    static int getNextPower(int number) {
         return (int) Math.pow(POWER_BASE, Math.ceil(Math.log(number) / Math.log(POWER_BASE)));
     }
 
@@ -48,48 +44,7 @@ public class ImagePadding {
      * @param paddedImageSize The new padded size of the image.
      * @return The size in pixels of padding required.
      */
-    private static int getPaddingSize(int imageSize, int paddedImageSize) {
+    static int getPaddingSize(int imageSize, int paddedImageSize) {
         return (paddedImageSize - imageSize) / 2;
     }
-
-    /**
-     * Fills the padded pixel matrix by copying the original image pixels and applying padding.
-     *
-     * @param paddedPixelMatrix The matrix to store the padded image pixels.
-     * @param image             The original image.
-     * @param paddingSizeHeight The size in pixels of vertical padding (one-sided padding)
-     * @param paddingSizeWidth  The size in pixels of horizontal padding (one-sided padding)
-     */
-    private static void fillPaddedPixelMatrix(Color[][] paddedPixelMatrix, Image image,
-                                              int paddingSizeHeight, int paddingSizeWidth) {
-        // Copy original image pixels into the center of the padded matrix
-        for (int row = 0; row < image.getHeight(); row++) {
-            for (int col = 0; col < image.getWidth(); col++) {
-                paddedPixelMatrix[paddingSizeHeight + row][paddingSizeWidth + col] = image.getPixel(row, col);
-            }
-        }
-
-        // Apply padding (white) around the original image
-        applyPadding(paddedPixelMatrix, image, paddingSizeHeight, paddingSizeWidth);
-    }
-
-    /**
-     * Applies padding around the image in the padded pixel matrix (all sides)
-     *
-     * @param paddedPixelMatrix The matrix to store the padded image pixels.
-     * @param image             The original image.
-     * @param paddingSizeHeight The size in pixels of vertical padding (one-sided padding)
-     * @param paddingSizeWidth  The size in pixels of horizontal padding (one-sided padding)
-     */
-    private static void applyPadding(Color[][] paddedPixelMatrix, Image image,
-                                     int paddingSizeHeight, int paddingSizeWidth) {
-        for (int row = 0; row < paddedPixelMatrix.length; row++) {
-            for (int col = 0; col < paddedPixelMatrix[0].length; col++) {
-                if (row < paddingSizeHeight || row >= image.getHeight() + paddingSizeHeight ||
-                        col < paddingSizeWidth || col >= image.getWidth() + paddingSizeWidth) {
-                    paddedPixelMatrix[row][col] = Color.WHITE;  // White padding color
-                }
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package image;
+
+import java.util.Objects;
+
+/**
+ * Describes the division of an image into a grid of equally sized sub-images, without holding any pixels.
+ * Cell (row, col) of the grid covers the image region starting at (getCellTop(row), getCellLeft(col)), of
+ * getCellHeight() x getCellWidth() pixels.
+ * <p>
+ * Cell coordinates are real numbers: a grid may divide an image to a number of columns its width is not
+ * divisible by, in which case cells start and end in the middle of pixels, and the grid may start outside
+ * of the image (negative coordinates), over its padding.
+ * <p>
+ * Grids are compared by their geometry, so they can be used as keys of tables of per-cell values.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+public class SubImageGrid {
+    private final int rows;
+    private final int cols;
+    private final double top;
+    private final double left;
+    private final double cellHeight;
+    private final double cellWidth;
+
+    /**
+     * Constructs a new grid descriptor of square, whole-pixel cells that starts at the image's top-left.
+     *
+     * @param rows     the number of sub-images in a single column.
+     * @param cols     the number of sub-images in a single row.
+     * @param cellSize the width (and height) of each sub-image, in pixels.
+     */
+    public SubImageGrid(int rows, int cols, int cellSize) {
+        this(rows, cols, 0, 0, cellSize, cellSize);
+    }
+
+    /**
+     * Constructs a new grid descriptor.
+     *
+     * @param rows       the number of sub-images in a single column.
+     * @param cols       the number of sub-images in a single row.
+     * @param top        the image row where the grid starts (negative if it starts over padding).
+     * @param left       the image column where the grid starts (negative if it starts over padding).
+     * @param cellHeight the height of each sub-image, in pixels.
+     * @param cellWidth  the width of each sub-image, in pixels.
+     */
+    public SubImageGrid(int rows, int cols, double top, double left, double cellHeight, double cellWidth) {
+        this.rows = rows;
+        this.cols = cols;
+        this.top = top;
+        this.left = left;
+        this.cellHeight = cellHeight;
+        this.cellWidth = cellWidth;
+    }
+
+    /**
+     * @return the number of sub-images in a single column.
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the number of sub-images in a single row.
+     */
+    public int getCols() {
+        return this.cols;
+    }
+
+    /**
+     * @return the height of each sub-image, in pixels.
+     */
+    public double getCellHeight() {
+        return this.cellHeight;
+    }
+
+    /**
+     * @return the width of each sub-image, in pixels.
+     */
+    public double getCellWidth() {
+        return this.cellWidth;
+    }
+
+    /**
+     * @param row the row index of a sub-image in the grid.
+     * @return the image row where the sub-image starts.
+     */
+    public double getCellTop(int row) {
+        return this.top + row * this.cellHeight;
+    }
+
+    /**
+     * @param col the column index of a sub-image in the grid.
+     * @return the image column where the sub-image starts.
+     */
+    public double getCellLeft(int col) {
+        return this.left + col * this.cellWidth;
+    }
+
+    /**
+     * Returns the grid that divides each cell of this grid to 2x2 equal cells. Each cell of this grid covers
+     * exactly the four cells (2 * row .. 2 * row + 1, 2 * col .. 2 * col + 1) of the refined grid.
+     *
+     * @return the refined grid, starting where this grid starts.
+     */
+    public SubImageGrid getRefinedGrid() {
+        return new SubImageGrid(this.rows * 2, this.cols * 2, this.top, this.left,
+                this.cellHeight / 2, this.cellWidth / 2);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SubImageGrid)) {
+            return false;
+        }
+        SubImageGrid grid = (SubImageGrid) other;
+        return this.rows == grid.rows && this.cols == grid.cols &&
+                Double.compare(this.top, grid.top) == 0 && Double.compare(this.left, grid.left) == 0 &&
+                Double.compare(this.cellHeight, grid.cellHeight) == 0 &&
+                Double.compare(this.cellWidth, grid.cellWidth) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.rows, this.cols, this.top, this.left, this.cellHeight, this.cellWidth);
+    }
+}
@@ -7,6 +7,10 @@ package image_char_matching;
  * where each `true` value represents a white pixel. The brightness is calculated as the ratio
  * of white pixels to the total number of pixels.</p>
  *
+ * <p>Rendering a glyph is expensive, so the white pixel counts of rendered glyphs are kept in a
+ * GlyphBrightnessCache, keyed by the font they are actually rendered in, and each glyph is only rendered the
+ * first time it is needed (the first time it is ever needed, if the cache is kept on disk).</p>
+ *
  * @author Or Tarazi, Agam Hershko
  */
 public class CharBrightnessCalculator {
@@ -21,18 +25,47 @@ public class CharBrightnessCalculator {
      * @return the brightness level as a double between 0 (fully black) and 1 (fully white).
      */
     public static double calculateCharBrightness(char c) {
-        boolean[][] charBinaryImage = CharConverter.convertToBoolArray(c);
-        int totalPixels = charBinaryImage.length * charBinaryImage[0].length;
-        int whitePixels = 0;
+        return calculateCharBrightnesses(new char[]{c})[0];
+    }
 
-        for (boolean[] row : charBinaryImage) {
-            for (boolean isPixelWhite : row) {
-                if (isPixelWhite) {
-                    whitePixels++;
-                }
+    /**
+     * Calculates the brightness levels of several characters at once. Cached glyphs are read from the
+     * cache, and the rest are rendered and then added to the cache together.
+     *
+     * @param chars the characters for which brightness is to be calculated.
+     * @return the brightness level of each character, in the same order, between 0 (fully black) and 1
+     * (fully white).
+     */
+    public static double[] calculateCharBrightnesses(char[] chars) {
+        int resolution = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+        int totalPixels = resolution * resolution;
+        double[] brightnesses = new double[chars.length];
+        String fontName = CharConverter.getResolvedFontName();
+
+        int[] missingIndices = new int[chars.length];
+        int missingCharsNumber = 0;
+        for (int i = 0; i < chars.length; i++) {
+            Integer whitePixels = GlyphBrightnessCache.getWhitePixelCount(fontName, resolution, chars[i]);
+            if (whitePixels == null) {
+                missingIndices[missingCharsNumber++] = i;
+            } else {
+                brightnesses[i] = whitePixels / (double) totalPixels;
             }
         }
 
-        return whitePixels / (double) totalPixels;
+        // render all the glyphs the cache misses in a single batch
+        char[] renderedChars = new char[missingCharsNumber];
+        for (int i = 0; i < missingCharsNumber; i++) {
+            renderedChars[i] = chars[missingIndices[i]];
+        }
+        long[][] bitmaps = CharConverter.convertToBitmaps(renderedChars);
+        int[] renderedWhitePixels = new int[missingCharsNumber];
+        for (int i = 0; i < missingCharsNumber; i++) {
+            renderedWhitePixels[i] = CharConverter.countSetPixels(bitmaps[i]);
+            brightnesses[missingIndices[i]] = renderedWhitePixels[i] / (double) totalPixels;
+        }
+
+        GlyphBrightnessCache.putWhitePixelCounts(fontName, resolution, renderedChars, renderedWhitePixels);
+        return brightnesses;
     }
 }
@@ -1,40 +1,52 @@
 package image_char_matching;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import ascii_art.RoundType;
 
 /**
- * A data structure that wraps two instances of TreeMap from the Java Collections framework.
- * The `CharBrightnessMap` maps ASCII characters to brightness values and normalizes them
+ * A data structure that maps characters to brightness values and normalizes them
  * to allow efficient brightness-based character matching for ASCII art generation.
  * <p>
  * Normalization ensures brightness values are linearly scaled between 0 and 1 for consistency
  * and accurate comparisons.
+ * <p>
+ * The chars are kept in two parallel primitive arrays, sorted by raw brightness (and by char among equal
+ * brightnesses), so the closest chars above and below a brightness are found by binary search, with no
+ * boxing and no allocation. Normalization is never stored: it is an affine transform of the raw brightness
+ * by the current minimum and maximum (the first and last entries), applied to the few entries a search
+ * compares, so adding a char that changes the range does not rewrite any other entry.
+ * <p>
+ * Chars can also be added and removed in batches (see addChars, removeChars and replaceCharset): the
+ * glyphs of a batch are rendered together, and the arrays are rebuilt once per batch, by a single merge or
+ * compaction pass.
  *
  * @author Or Tarazi, Agam Hershko
  */
 public class CharBrightnessMap {
-    private static final double MIN_POSSIBLE_BRIGHTNESS = 0;
-    private static final double MAX_POSSIBLE_BRIGHTNESS = 1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int GROWTH_FACTOR = 2;
+    private static final int NOT_FOUND = -1;
+    private static final double SINGLE_BRIGHTNESS_NORMALIZED = 0; // when all chars are equally bright
+    private static final RoundType[] ROUND_TYPES = RoundType.values();
 
-    // Stores raw brightness values
-    private final TreeMap<Integer, Double> rawBrightnessMap;
-    // Stores normalized brightness values
-    private final TreeMap<Integer, Double> normalizedBrightnessMap;
-    private double minBrightness;
-    private double maxBrightness;
+    // Raw brightness values, in ascending order (and chars in ascending order among equal brightnesses)
+    private double[] rawBrightnesses;
+    // The char of each raw brightness
+    private char[] chars;
+    private int size;
+    // The chars in the map, for membership checks and for printing in char order
+    private final BitSet charset;
 
     /**
-     * constructor for the data-structure. initializes two TreeMap when an instance is created.
+     * constructor for the data-structure. initializes empty arrays when an instance is created.
      */
     public CharBrightnessMap() {
-        this.rawBrightnessMap = new TreeMap<>();
-        this.normalizedBrightnessMap = new TreeMap<>();
-        // Init default values to make first conditions be true
-        this.minBrightness = MAX_POSSIBLE_BRIGHTNESS;
-        this.maxBrightness = MIN_POSSIBLE_BRIGHTNESS;
+        this.rawBrightnesses = new double[INITIAL_CAPACITY];
+        this.chars = new char[INITIAL_CAPACITY];
+        this.size = 0;
+        this.charset = new BitSet();
     }
 
     /**
@@ -43,25 +55,159 @@ public class CharBrightnessMap {
      * @param c char to be added to ascii set
      */
     public void addChar(char c) {
-        double brightness = CharBrightnessCalculator.calculateCharBrightness(c);
-        this.rawBrightnessMap.put((int) c, brightness); // Always store raw brightness
+        this.addChar(c, CharBrightnessCalculator.calculateCharBrightness(c));
+    }
+
+    /**
+     * adds char with an already calculated brightness to the char set, at its sorted position.
+     *
+     * @param c          char to be added to the set.
+     * @param brightness the raw brightness of the char.
+     */
+    private void addChar(char c, double brightness) {
+        if (this.charset.get(c)) {
+            this.removeChar(c); // a char has exactly one brightness
+        }
+        if (this.size == this.chars.length) {
+            this.rawBrightnesses = Arrays.copyOf(this.rawBrightnesses, this.size * GROWTH_FACTOR);
+            this.chars = Arrays.copyOf(this.chars, this.size * GROWTH_FACTOR);
+        }
+
+        int index = this.findInsertionIndex(c, brightness);
+        System.arraycopy(this.rawBrightnesses, index, this.rawBrightnesses, index + 1, this.size - index);
+        System.arraycopy(this.chars, index, this.chars, index + 1, this.size - index);
+        this.rawBrightnesses[index] = brightness;
+        this.chars[index] = c;
+        this.size++;
+        this.charset.set(c);
+    }
+
+    /**
+     * adds several chars to the char set at once. Chars that are already in the set (or repeat in the batch)
+     * are added only once, and only the glyphs of the new chars are rendered.
+     *
+     * @param charsToAdd the chars to be added to the set.
+     */
+    public void addChars(char[] charsToAdd) {
+        BitSet newCharset = new BitSet();
+        for (char c : charsToAdd) {
+            newCharset.set(c);
+        }
+        newCharset.andNot(this.charset);
 
-        if (brightness > this.maxBrightness || brightness < this.minBrightness) {
-            this.adjustMinAndMaxBrightness(brightness);
+        char[] newChars = new char[newCharset.cardinality()];
+        for (int i = 0, c = newCharset.nextSetBit(0); c >= 0; i++, c = newCharset.nextSetBit(c + 1)) {
+            newChars[i] = (char) c; // in ascending order
+        }
+        this.mergeEntries(newChars, CharBrightnessCalculator.calculateCharBrightnesses(newChars));
+        this.charset.or(newCharset);
+    }
+
+    /**
+     * removes several chars from the char set at once, in a single pass over the set. Chars that are not
+     * in the set are ignored.
+     *
+     * @param charsToRemove the chars to be removed from the set.
+     */
+    public void removeChars(char[] charsToRemove) {
+        BitSet removedCharset = new BitSet();
+        for (char c : charsToRemove) {
+            removedCharset.set(c);
+        }
+
+        int keptSize = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (!removedCharset.get(this.chars[i])) {
+                this.rawBrightnesses[keptSize] = this.rawBrightnesses[i];
+                this.chars[keptSize] = this.chars[i];
+                keptSize++;
+            }
+        }
+        this.size = keptSize;
+        this.charset.andNot(removedCharset);
+    }
+
+    /**
+     * replaces the char set with the given chars. Chars that are in both sets keep their calculated
+     * brightness, so only the glyphs of the new chars are rendered.
+     *
+     * @param newCharset the chars of the new set.
+     */
+    public void replaceCharset(char[] newCharset) {
+        BitSet keptCharset = new BitSet();
+        for (char c : newCharset) {
+            keptCharset.set(c);
+        }
+
+        char[] removedChars = new char[this.size];
+        int removedCharsNumber = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (!keptCharset.get(this.chars[i])) {
+                removedChars[removedCharsNumber++] = this.chars[i];
+            }
+        }
+        this.removeChars(Arrays.copyOf(removedChars, removedCharsNumber));
+        this.addChars(newCharset);
+    }
+
+    /**
+     * Merges new entries into the sorted arrays, in a single pass. The new chars must not be in the map yet.
+     *
+     * @param newChars        the new chars, in ascending order.
+     * @param newBrightnesses the raw brightness of each new char.
+     */
+    private void mergeEntries(char[] newChars, double[] newBrightnesses) {
+        // sort the new entries by brightness, as primitive keys: each entry's rank among the sorted
+        // brightnesses (the same for equal brightnesses) above its index, so equally bright chars stay in
+        // ascending order
+        double[] sortedBrightnesses = newBrightnesses.clone();
+        Arrays.sort(sortedBrightnesses);
+        long[] sortKeys = new long[newChars.length];
+        for (int i = 0; i < sortKeys.length; i++) {
+            long rank = Arrays.binarySearch(sortedBrightnesses, newBrightnesses[i]);
+            sortKeys[i] = rank << Integer.SIZE | i;
         }
-        if (this.normalizedBrightnessMap.size() > 1) {
-            this.normalizedBrightnessMap.put((int) c, this.normalizeBrightness(brightness));
-            this.normalizeAllValues();
-        } else {
-            this.normalizedBrightnessMap.put((int) c, brightness);
+        Arrays.sort(sortKeys);
+        int[] newOrder = new int[newChars.length];
+        for (int i = 0; i < newOrder.length; i++) {
+            newOrder[i] = (int) sortKeys[i];
         }
 
+        int mergedSize = this.size + newChars.length;
+        double[] mergedBrightnesses = new double[Math.max(INITIAL_CAPACITY, mergedSize)];
+        char[] mergedChars = new char[mergedBrightnesses.length];
+        int oldIndex = 0;
+        int newIndex = 0;
+        for (int mergedIndex = 0; mergedIndex < mergedSize; mergedIndex++) {
+            boolean isNewEntryNext = newIndex < newOrder.length && (oldIndex == this.size ||
+                    isEntryBefore(newBrightnesses[newOrder[newIndex]], newChars[newOrder[newIndex]],
+                            this.rawBrightnesses[oldIndex], this.chars[oldIndex]));
+            if (isNewEntryNext) {
+                mergedBrightnesses[mergedIndex] = newBrightnesses[newOrder[newIndex]];
+                mergedChars[mergedIndex] = newChars[newOrder[newIndex]];
+                newIndex++;
+            } else {
+                mergedBrightnesses[mergedIndex] = this.rawBrightnesses[oldIndex];
+                mergedChars[mergedIndex] = this.chars[oldIndex];
+                oldIndex++;
+            }
+        }
+
+        this.rawBrightnesses = mergedBrightnesses;
+        this.chars = mergedChars;
+        this.size = mergedSize;
+    }
+
+    // Checks if an entry comes before another in the arrays' order: by brightness, and then by char
+    private static boolean isEntryBefore(double brightness, char c, double otherBrightness, char otherChar) {
+        return brightness < otherBrightness || (brightness == otherBrightness && c < otherChar);
     }
 
     /**
      * Finds the ASCII character that best matches the given normalized brightness value.
      * This method searches the brightness map for the closest brightness values above
      * and below the provided brightness. It then selects the best match based on the specified rounding type.
+     * Among chars of equal brightness, the lowest char is always the one returned.
      *
      * @param brightness the normalized brightness value (between 0 and 1) to match.
      * @param roundType  the rounding strategy to use when selecting the closest character:
@@ -71,39 +217,50 @@ public class CharBrightnessMap {
      * @return the ASCII character that best matches the brightness value based on the rounding type.
      */
     public char getCharByNormalizedBrightness(double brightness, RoundType roundType) {
-        Map.Entry<Integer, Double> closestAbove = null;
-        Map.Entry<Integer, Double> closestBelow = null;
-
-        // Initialize with double.MAX_VALUE to ensure any valid difference is smaller
-        double smallestDifferenceAbove = Double.MAX_VALUE;
-        double smallestDifferenceBelow = Double.MAX_VALUE;
-
-        // Single loop to find both the closestAbove and closestBelow entries
-        for (Map.Entry<Integer, Double> entry : this.normalizedBrightnessMap.entrySet()) {
-            double difference = entry.getValue() - brightness;
-            if (difference == 0) { // Exact match: Return immediately
-                return (char) (int) entry.getKey();
-            } else if (difference > 0 && difference < smallestDifferenceAbove) { // Check for closest above
-                smallestDifferenceAbove = difference;
-                closestAbove = entry;
-            } else if (difference < 0 && -difference < smallestDifferenceBelow) { // Check for closest below
-                smallestDifferenceBelow = -difference;
-                closestBelow = entry;
-            }
+        int aboveIndex = this.findFirstNotBelow(brightness); // the closest entry above or equal
+        if (aboveIndex < this.size && this.getNormalized(aboveIndex) == brightness) { // Exact match
+            return this.getLowestCharOfRun(aboveIndex);
         }
 
+        int closestAbove = aboveIndex < this.size ? aboveIndex : NOT_FOUND;
+        int closestBelow = aboveIndex > 0 ?
+                this.findFirstNotBelow(this.getNormalized(aboveIndex - 1)) : NOT_FOUND; // its run's start
+        return this.getRoundedChar(closestAbove, closestBelow, brightness, roundType);
+    }
+
+    /**
+     * Finds the ASCII characters that best match the given normalized brightness value under every rounding
+     * type at once: the closest brightness values above and below it are searched for once, and each
+     * rounding type selects among them as in getCharByNormalizedBrightness.
+     *
+     * @param brightness       the normalized brightness value (between 0 and 1) to match.
+     * @param charsByRoundType the array to fill with the best matching char of each rounding type, indexed by
+     *                         the rounding type's ordinal.
+     */
+    void getCharsByNormalizedBrightness(double brightness, char[] charsByRoundType) {
+        int aboveIndex = this.findFirstNotBelow(brightness); // the closest entry above or equal
+        if (aboveIndex < this.size && this.getNormalized(aboveIndex) == brightness) { // Exact match
+            Arrays.fill(charsByRoundType, this.getLowestCharOfRun(aboveIndex));
+            return;
+        }
 
-        return getRoundedChar(closestAbove, closestBelow, brightness, roundType);
+        int closestAbove = aboveIndex < this.size ? aboveIndex : NOT_FOUND;
+        int closestBelow = aboveIndex > 0 ?
+                this.findFirstNotBelow(this.getNormalized(aboveIndex - 1)) : NOT_FOUND; // its run's start
+        for (RoundType roundType : ROUND_TYPES) {
+            charsByRoundType[roundType.ordinal()] =
+                    this.getRoundedChar(closestAbove, closestBelow, brightness, roundType);
+        }
     }
 
     /**
      * Selects the ASCII character based on the closest brightness values and the specified rounding strategy.
-     * We assume closestAbove and closestBelow will not be both null.
+     * We assume closestAbove and closestBelow will not be both NOT_FOUND.
      *
-     * @param closestAbove the closest entry with brightness above or equal to the target brightness,
-     *                     or null if none.
-     * @param closestBelow the closest entry with brightness below or equal to the target brightness,
-     *                     or null if none.
+     * @param closestAbove the index of the first entry with the closest brightness above the target
+     *                     brightness, or NOT_FOUND if none.
+     * @param closestBelow the index of the first entry with the closest brightness below the target
+     *                     brightness, or NOT_FOUND if none.
      * @param brightness   the target normalized brightness value (between 0 and 1).
      * @param roundType    the rounding strategy to use:
      *                     - ABS: Select the character with the smallest absolute difference.
@@ -111,101 +268,164 @@ public class CharBrightnessMap {
      *                     - DOWN: Select the closest character with brightness below or equal to brightness.
      * @return the ASCII character that matches the target brightness based on the rounding strategy.
      */
-    private static char getRoundedChar(Map.Entry<Integer, Double> closestAbove,
-                                       Map.Entry<Integer, Double> closestBelow,
-                                       double brightness, RoundType roundType) {
-        return switch (roundType) {
+    private char getRoundedChar(int closestAbove, int closestBelow, double brightness, RoundType roundType) {
+        int closest = switch (roundType) {
             case ABS -> {
-                if (closestAbove != null && closestBelow != null) {
-                    if (Math.abs(closestAbove.getValue() - brightness) <
-                            Math.abs(closestBelow.getValue() - brightness)) {
-                        yield (char) (int) closestAbove.getKey();
+                if (closestAbove != NOT_FOUND && closestBelow != NOT_FOUND) {
+                    if (Math.abs(this.getNormalized(closestAbove) - brightness) <
+                            Math.abs(this.getNormalized(closestBelow) - brightness)) {
+                        yield closestAbove;
                     } else {
-                        yield (char) (int) closestBelow.getKey();
+                        yield closestBelow;
                     }
-                } else if (closestAbove != null) {
-                    yield (char) (int) closestAbove.getKey();
-                } else { // closestBelow is not null
-                    yield (char) (int) closestBelow.getKey();
+                } else if (closestAbove != NOT_FOUND) {
+                    yield closestAbove;
+                } else { // closestBelow is found
+                    yield closestBelow;
                 }
             }
-            case DOWN -> closestBelow != null ?
-                    (char) (int) closestBelow.getKey() : (char) (int) closestAbove.getKey();
-            case UP -> closestAbove != null ?
-                    (char) (int) closestAbove.getKey() : (char) (int) closestBelow.getKey();
+            case DOWN -> closestBelow != NOT_FOUND ? closestBelow : closestAbove;
+            case UP -> closestAbove != NOT_FOUND ? closestAbove : closestBelow;
         };
+        return this.getLowestCharOfRun(closest);
     }
 
     /**
-     * gets a char, and deletes the entry with the char as aa key, from both normalized and raw maps.
+     * gets a char, and deletes its entry from the map. Does nothing if the char is not in the map.
      *
-     * @param c key in map to be removed
+     * @param c char to be removed
      */
     public void removeChar(char c) {
-        double brightness = this.rawBrightnessMap.remove((int) c);
-        this.normalizedBrightnessMap.remove((int) c);
+        if (!this.charset.get(c)) {
+            return;
+        }
 
-        if (brightness == this.maxBrightness || brightness == this.minBrightness) {
-            this.recalculateMinMaxBrightness();
-            if (this.rawBrightnessMap.size() > 1) {
-                this.normalizeAllValues();
-            }
+        int index = 0;
+        while (this.chars[index] != c) {
+            index++;
         }
+        System.arraycopy(this.rawBrightnesses, index + 1, this.rawBrightnesses, index, this.size - index - 1);
+        System.arraycopy(this.chars, index + 1, this.chars, index, this.size - index - 1);
+        this.size--;
+        this.charset.clear(c);
     }
 
     /**
-     * After removing an ascii char from the set, it is needed to re-evaluate the minimum or maximum
-     * brightness values, as the removed ascii char could be the most or least bright character in the set
-     * before removal.
+     * does linear stretch of a raw brightness over the current set of ascii chars, so the least bright char
+     * is 0 and the brightest is 1. Computed on demand from the first and last entries - nothing is stored.
+     *
+     * @param index the index of the entry to normalize.
+     * @return normalized brightness
      */
-    private void recalculateMinMaxBrightness() {
-        this.minBrightness = MAX_POSSIBLE_BRIGHTNESS;
-        this.maxBrightness = MIN_POSSIBLE_BRIGHTNESS;
-
-        for (double brightness : this.rawBrightnessMap.values()) {
-            this.adjustMinAndMaxBrightness(brightness);
+    private double getNormalized(int index) {
+        double minBrightness = this.rawBrightnesses[0];
+        double maxBrightness = this.rawBrightnesses[this.size - 1];
+        if (maxBrightness == minBrightness) {
+            return SINGLE_BRIGHTNESS_NORMALIZED;
         }
+        return (this.rawBrightnesses[index] - minBrightness) / (maxBrightness - minBrightness);
     }
 
     /**
-     * does a complete normalization operation on normalized map.
-     * it's not needed to be called when minimum/brightness haven't changed after adding an ascii char.
+     * Binary searches for the first entry whose normalized brightness is not below the given one.
+     * Normalization is monotone, so the entries are sorted by normalized brightness as well.
+     *
+     * @param brightness the normalized brightness to search for.
+     * @return the index of the first entry not below the brightness, or the size if there is none.
      */
-    private void normalizeAllValues() {
-        for (Map.Entry<Integer, Double> entry : this.rawBrightnessMap.entrySet()) {
-            double normalized = this.normalizeBrightness(entry.getValue());
-            this.normalizedBrightnessMap.put(entry.getKey(), normalized);
+    int findFirstNotBelow(double brightness) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.getNormalized(middle) < brightness) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
         }
+        return low;
     }
 
     /**
-     * does linear stretch over the current set of ascii chars and their brightness values.
-     * re-evaluates the normalizedMap values per key.
-     * the method is called smartly, only when adding an entry to the map where the brightness value
-     * outreaches the current minimum and maximum (we can assume they are different
+     * Binary searches for the position a char of the given brightness should be inserted at, to keep the
+     * entries sorted by raw brightness and then by char.
      *
-     * @param addedBrightness the new brightness value in the map that changes the min/max values.
-     * @return normalized brightness
+     * @param c          the char to insert.
+     * @param brightness the raw brightness of the char.
+     * @return the index to insert the char at.
      */
-    private double normalizeBrightness(double addedBrightness) {
-        return (addedBrightness - this.minBrightness) / (this.maxBrightness - this.minBrightness);
+    private int findInsertionIndex(char c, double brightness) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (isEntryBefore(this.rawBrightnesses[middle], this.chars[middle], brightness, c)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
     }
 
     /**
-     * re-evaluates the maximum and minimum brightness in the class' ascii-char set.
-     * the method is called smartly, only when adding an entry to the map where the brightness value
-     * outreaches the current minimum and maximum.
+     * Finds the lowest char among the entries of equal normalized brightness that start at the given index.
+     * Entries of equal raw brightness are sorted by char, so only the first entry of each raw brightness in
+     * the run is compared (different raw brightnesses only normalize equally through rounding).
      *
-     * @param addedBrightness the new brightness value in the map that changes the min/max values.
+     * @param runStart the index of the first entry with its normalized brightness.
+     * @return the lowest char of the run.
      */
-    private void adjustMinAndMaxBrightness(double addedBrightness) {
-        if (addedBrightness < this.minBrightness) {
-            this.minBrightness = addedBrightness;
+    private char getLowestCharOfRun(int runStart) {
+        double normalized = this.getNormalized(runStart);
+        char lowestChar = this.chars[runStart];
+        int index = this.findFirstRawAbove(this.rawBrightnesses[runStart]);
+        while (index < this.size && this.getNormalized(index) == normalized) {
+            lowestChar = (char) Math.min(lowestChar, this.chars[index]);
+            index = this.findFirstRawAbove(this.rawBrightnesses[index]);
         }
+        return lowestChar;
+    }
 
-        if (addedBrightness > this.maxBrightness) {
-            this.maxBrightness = addedBrightness;
+    /**
+     * Binary searches for the first entry whose raw brightness is above the given one.
+     *
+     * @param brightness the raw brightness to search for.
+     * @return the index of the first entry above the brightness, or the size if there is none.
+     */
+    private int findFirstRawAbove(double brightness) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.rawBrightnesses[middle] <= brightness) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
         }
+        return low;
+    }
+
+    /**
+     * Returns the char of an entry. Entries are sorted by brightness (and by char among equal brightnesses).
+     *
+     * @param index the index of the entry, between 0 and the size of the map.
+     * @return the char of the entry.
+     */
+    char getCharAt(int index) {
+        return this.chars[index];
+    }
+
+    /**
+     * Returns the normalized brightness of an entry. Entries are sorted by brightness.
+     *
+     * @param index the index of the entry, between 0 and the size of the map.
+     * @return the normalized brightness of the entry.
+     */
+    double getNormalizedBrightnessAt(int index) {
+        return this.getNormalized(index);
     }
 
     /**
@@ -214,19 +434,18 @@ public class CharBrightnessMap {
      * @return the size of the map, representing the total number of characters in the set.
      */
     public int getSize() {
-        return this.rawBrightnessMap.size();
+        return this.size;
     }
 
     /**
      * Prints all the ASCII characters currently in the brightness map to the console.
-     * Characters are printed in a single line, separated by spaces, in the order they
-     * appear in the internal TreeMap.
+     * Characters are printed in a single line, separated by spaces, in ascending order.
      */
     public void printChars() {
         int count = 0;
-        for (int key : this.rawBrightnessMap.keySet()) {
-            System.out.print((char) key);
-            if (++count < this.rawBrightnessMap.size()) {
+        for (int c = this.charset.nextSetBit(0); c >= 0; c = this.charset.nextSetBit(c + 1)) {
+            System.out.print((char) c);
+            if (++count < this.size) {
                 System.out.print(" ");
             }
         }
@@ -240,6 +459,6 @@ public class CharBrightnessMap {
      * @return true if the character exists in the map, false otherwise.
      */
     public boolean containsChar(char c) {
-        return this.rawBrightnessMap.containsKey((int) c);
+        return this.charset.get(c);
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,9 @@ package image_char_matching;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Inspired by, and partly copied from
@@ -10,12 +13,22 @@ import java.awt.image.BufferedImage;
  * https://dzone.com/articles/ascii-art-generator-java
  * Adaptations made by Dan Nirel and again by Rachel Behar.
  * The class converts characters to a binary "image" (2D array of booleans).
+ * <p>
+ * Each thread renders through its own GlyphRasterizer, which keeps a single surface, graphics context and
+ * font for all the characters it renders, and reads the rendered pixels back straight from the surface's
+ * buffer. A rendered character is returned as a packed bitmap - one bit per pixel, row by row, 64 pixels per
+ * long (four longs for a 16x16 glyph) - and a batch of characters is rendered in parallel.
  */
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
-    private static final String FONT_NAME = "Courier New";
+    public static final String FONT_NAME = "Courier New";
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
+    private static final int MIN_CHARS_FOR_PARALLEL_RENDERING = 64; // smaller batches aren't worth it
+    private static final ThreadLocal<GlyphRasterizer> RASTERIZER =
+            ThreadLocal.withInitial(() -> new GlyphRasterizer(FONT_NAME, DEFAULT_PIXEL_RESOLUTION));
+
+    private static String resolvedFontName; // resolved on first use
 
     /**
      * Renders a given character, according to how it looks in the font specified in the
@@ -23,26 +36,126 @@ public class CharConverter {
      * whose dimension in pixels is specified.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
+        long[] bitmap = convertToBitmap(c);
         boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
         for (int y = 0; y < DEFAULT_PIXEL_RESOLUTION; y++) {
             for (int x = 0; x < DEFAULT_PIXEL_RESOLUTION; x++) {
-                matrix[y][x] = img.getRGB(x, y) == 0; //is the color black
+                matrix[y][x] = isPixelSet(bitmap, y * DEFAULT_PIXEL_RESOLUTION + x);
             }
         }
         return matrix;
     }
 
-    private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
-        String charStr = Character.toString(c);
-        Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
-        BufferedImage img = new BufferedImage(pixelsPerRow, pixelsPerRow, BufferedImage.TYPE_INT_ARGB);
-        Graphics g = img.getGraphics();
-        g.setFont(font);
-        int xOffset = (int) Math.round(pixelsPerRow * X_OFFSET_FACTOR);
-        int yOffset = (int) Math.round(pixelsPerRow * Y_OFFSET_FACTOR);
-        g.drawString(charStr, xOffset, yOffset);
-        return img;
+    /**
+     * Returns the name of the font characters are actually rendered in: FONT_NAME if it is installed, or
+     * the font Java substitutes for it otherwise (e.g. "Dialog.plain").
+     *
+     * @return the full name of the font characters are rendered in.
+     */
+    public static synchronized String getResolvedFontName() {
+        if (resolvedFontName == null) {
+            resolvedFontName = new Font(FONT_NAME, Font.PLAIN, DEFAULT_PIXEL_RESOLUTION).getFontName();
+        }
+        return resolvedFontName;
+    }
+
+    /**
+     * Renders a given character to a packed bitmap, whose set bits are the pixels convertToBoolArray() marks
+     * as true. Pixel (x, y) is bit (y * DEFAULT_PIXEL_RESOLUTION + x) of the bitmap, counted from the lowest
+     * bit of its first long.
+     *
+     * @param c the character to render.
+     * @return the character's bitmap.
+     */
+    public static long[] convertToBitmap(char c) {
+        return RASTERIZER.get().rasterize(c);
+    }
+
+    /**
+     * Renders a batch of characters to packed bitmaps (see convertToBitmap()). Large batches are rendered in
+     * parallel, each thread on its own surface.
+     *
+     * @param chars the characters to render.
+     * @return the bitmap of each character, in the same order.
+     */
+    public static long[][] convertToBitmaps(char[] chars) {
+        long[][] bitmaps = new long[chars.length][];
+        IntStream indices = IntStream.range(0, chars.length);
+        if (chars.length >= MIN_CHARS_FOR_PARALLEL_RENDERING) {
+            indices = indices.parallel();
+        }
+        indices.forEach(i -> bitmaps[i] = convertToBitmap(chars[i]));
+        return bitmaps;
+    }
+
+    /**
+     * Checks whether a pixel of a packed bitmap is set.
+     *
+     * @param bitmap     the bitmap.
+     * @param pixelIndex the pixel's index, row by row.
+     * @return true if the pixel is set, false otherwise.
+     */
+    public static boolean isPixelSet(long[] bitmap, int pixelIndex) {
+        return (bitmap[pixelIndex / Long.SIZE] >>> (pixelIndex % Long.SIZE) & 1L) != 0;
+    }
+
+    /**
+     * Counts the set pixels of a packed bitmap.
+     *
+     * @param bitmap the bitmap.
+     * @return the number of set pixels.
+     */
+    public static int countSetPixels(long[] bitmap) {
+        int setPixels = 0;
+        for (long word : bitmap) {
+            setPixels += Long.bitCount(word);
+        }
+        return setPixels;
     }
 
+    /**
+     * Renders characters on a single reusable surface. Not thread safe - each thread has its own.
+     */
+    private static class GlyphRasterizer {
+        private static final int CLEAR_PIXEL = 0; // a pixel nothing was drawn on
+
+        private final int[] pixels;
+        private final Graphics graphics;
+        private final int xOffset;
+        private final int yOffset;
+
+        /**
+         * Creates the surface, and its graphics context set to the given font.
+         *
+         * @param fontName     the name of the font to render in.
+         * @param pixelsPerRow the width (and height) of the surface, in pixels.
+         */
+        GlyphRasterizer(String fontName, int pixelsPerRow) {
+            BufferedImage img = new BufferedImage(pixelsPerRow, pixelsPerRow, BufferedImage.TYPE_INT_ARGB);
+            this.pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            this.graphics = img.getGraphics();
+            this.graphics.setFont(new Font(fontName, Font.PLAIN, pixelsPerRow));
+            this.xOffset = (int) Math.round(pixelsPerRow * X_OFFSET_FACTOR);
+            this.yOffset = (int) Math.round(pixelsPerRow * Y_OFFSET_FACTOR);
+        }
+
+        /**
+         * Clears the surface, renders a character on it, and packs the pixels nothing was drawn on.
+         *
+         * @param c the character to render.
+         * @return the character's bitmap.
+         */
+        long[] rasterize(char c) {
+            Arrays.fill(this.pixels, CLEAR_PIXEL);
+            this.graphics.drawString(Character.toString(c), this.xOffset, this.yOffset);
+
+            long[] bitmap = new long[(this.pixels.length + Long.SIZE - 1) / Long.SIZE];
+            for (int i = 0; i < this.pixels.length; i++) {
+                if (this.pixels[i] == CLEAR_PIXEL) { //is the color black
+                    bitmap[i / Long.SIZE] |= 1L << (i % Long.SIZE);
+                }
+            }
+            return bitmap;
+        }
+    }
 }
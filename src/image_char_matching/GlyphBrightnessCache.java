@@ -0,0 +1,145 @@
+package image_char_matching;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A cache of rendered glyphs' white pixel counts, keyed by (font name, pixel resolution, codepoint), so each
+ * glyph is rendered once per run - or, if the cache is kept on disk, once ever.
+ * <p>
+ * The cache is kept in memory, and on disk only if the CACHE_PATH_PROPERTY system property names a file for
+ * it: a text file with a "font|resolution|codepoint=count" line per glyph, which is read once, on first use,
+ * and to which newly rendered glyphs are appended. The file is only an optimization: if its path is invalid,
+ * or it cannot be read or written, glyphs are simply rendered as usual, and malformed lines are skipped.
+ * Glyphs are keyed by the name of the font they are actually rendered in (the installed font, or the one
+ * Java substitutes for a missing font), so installing or removing a font never reuses stale counts.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+class GlyphBrightnessCache {
+    /**
+     * The system property that names the cache file (unset or empty: the cache is not kept on disk).
+     */
+    static final String CACHE_PATH_PROPERTY = "ascii_art.glyphCache";
+
+    private static final String KEY_SEPARATOR = "|";
+    private static final String VALUE_SEPARATOR = "=";
+    private static final String COMMENT_PREFIX = "#";
+    private static final String FILE_HEADER = COMMENT_PREFIX + " font|resolution|codepoint=white pixels";
+    private static final Logger LOGGER = Logger.getLogger(GlyphBrightnessCache.class.getName());
+
+    private static Map<String, Integer> whitePixelCounts; // loaded on first use
+
+    /**
+     * Looks a glyph up in the cache.
+     *
+     * @param fontName   the name of the font the glyph is rendered in.
+     * @param resolution the glyph's width (and height), in pixels.
+     * @param c          the glyph's char.
+     * @return the number of white pixels of the rendered glyph, or null if it is not in the cache.
+     */
+    static synchronized Integer getWhitePixelCount(String fontName, int resolution, char c) {
+        return getWhitePixelCounts().get(getKey(fontName, resolution, c));
+    }
+
+    /**
+     * Adds rendered glyphs to the cache, and appends them to the cache file in a single write.
+     *
+     * @param fontName         the name of the font the glyphs were rendered in.
+     * @param resolution       the glyphs' width (and height), in pixels.
+     * @param chars            the glyphs' chars.
+     * @param whitePixelCounts the number of white pixels of each rendered glyph, in the same order.
+     */
+    static synchronized void putWhitePixelCounts(String fontName, int resolution, char[] chars,
+                                                 int[] whitePixelCounts) {
+        if (chars.length == 0) {
+            return;
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < chars.length; i++) {
+            String key = getKey(fontName, resolution, chars[i]);
+            getWhitePixelCounts().put(key, whitePixelCounts[i]);
+            lines.append(key).append(VALUE_SEPARATOR).append(whitePixelCounts[i])
+                    .append(System.lineSeparator());
+        }
+
+        Path cachePath = getCachePath();
+        if (cachePath == null) {
+            return;
+        }
+        try {
+            if (!Files.exists(cachePath)) {
+                lines.insert(0, FILE_HEADER + System.lineSeparator());
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(cachePath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(lines.toString());
+            }
+        } catch (IOException | SecurityException e) {
+            LOGGER.fine(() -> "Could not write the glyph cache " + cachePath + ": " + e);
+        }
+    }
+
+    // Returns the in-memory cache, reading the cache file on first use
+    private static Map<String, Integer> getWhitePixelCounts() {
+        if (whitePixelCounts == null) {
+            whitePixelCounts = readCacheFile(getCachePath());
+        }
+        return whitePixelCounts;
+    }
+
+    // Reads all the well-formed lines of the cache file, if there is one and it exists
+    private static Map<String, Integer> readCacheFile(Path cachePath) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (cachePath == null || !Files.exists(cachePath)) {
+            return counts;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(cachePath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separatorIndex = line.lastIndexOf(VALUE_SEPARATOR);
+                if (line.startsWith(COMMENT_PREFIX) || separatorIndex < 0) {
+                    continue;
+                }
+                try {
+                    counts.put(line.substring(0, separatorIndex),
+                            Integer.parseInt(line.substring(separatorIndex + 1).trim()));
+                } catch (NumberFormatException e) {
+                    // a malformed line (e.g. cut by a concurrent write) - the glyph will be rendered again
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            LOGGER.fine(() -> "Could not read the glyph cache " + cachePath + ": " + e);
+        }
+        return counts;
+    }
+
+    // The cache file's path: the system property's value. Null if the property is unset or empty (the cache
+    // is not kept on disk), or if it is not a valid path
+    private static Path getCachePath() {
+        try {
+            String cachePath = System.getProperty(CACHE_PATH_PROPERTY);
+            return cachePath == null || cachePath.isEmpty() ? null : Paths.get(cachePath);
+        } catch (InvalidPathException | SecurityException e) {
+            LOGGER.fine(() -> "No valid glyph cache path: " + e);
+            return null;
+        }
+    }
+
+    // The cache key of a glyph
+    private static String getKey(String fontName, int resolution, char c) {
+        return fontName + KEY_SEPARATOR + resolution + KEY_SEPARATOR + (int) c;
+    }
+}
@@ -0,0 +1,123 @@
+package image_char_matching;
+
+/**
+ * The shapes of a charset's glyphs, for matching a sub-image with the char whose glyph looks most like it.
+ * <p>
+ * A shape is a binary mask of SubImgCharMatcher.SHAPE_MASK_SIZE x SHAPE_MASK_SIZE blocks, packed row by row
+ * into a single long: a block's bit is set if the block is at least as bright as the whole glyph (or
+ * sub-image). The distance between two shapes is the number of blocks they differ in - a XOR and a
+ * popcount.
+ * <p>
+ * Shapes are only compared between chars of about the sub-image's brightness: starting from the chars
+ * closest to it in normalized brightness, at most MAX_CANDIDATES chars within BRIGHTNESS_TOLERANCE of it
+ * are compared (the closest char always is), and the one with the closest shape is chosen - among equally
+ * close shapes, the one closest in brightness. This keeps each match cheap regardless of the charset's
+ * size, and keeps the tones of the picture. The charset's CharBrightnessMap finds the closest chars; the
+ * index keeps the chars' shapes, and a copy of their normalized brightnesses (the map computes one, with a
+ * division, on every read), since it is rebuilt whenever the charset changes anyway.
+ *
+ * @author Or Tarazi, Agam Hershko
+ */
+class GlyphShapeIndex {
+    private static final int MAX_CANDIDATES = 16;
+    private static final double BRIGHTNESS_TOLERANCE = 0.125;
+    private static final int MASK_BITS =
+            SubImgCharMatcher.SHAPE_MASK_SIZE * SubImgCharMatcher.SHAPE_MASK_SIZE;
+
+    // The charset, sorted by brightness, and the normalized brightness and the shape of each of its entries
+    private final CharBrightnessMap brightnessMap;
+    private final double[] brightnesses;
+    private final long[] shapeMasks;
+
+    /**
+     * Renders the glyphs of a charset and builds their shapes. The index is only valid until the charset
+     * changes.
+     *
+     * @param brightnessMap the charset, with the chars' brightnesses.
+     */
+    GlyphShapeIndex(CharBrightnessMap brightnessMap) {
+        this.brightnessMap = brightnessMap;
+        int size = brightnessMap.getSize();
+        char[] chars = new char[size];
+        this.brightnesses = new double[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = brightnessMap.getCharAt(i);
+            this.brightnesses[i] = brightnessMap.getNormalizedBrightnessAt(i);
+        }
+
+        long[][] bitmaps = CharConverter.convertToBitmaps(chars);
+        this.shapeMasks = new long[size];
+        for (int i = 0; i < size; i++) {
+            this.shapeMasks[i] = getGlyphShapeMask(bitmaps[i]);
+        }
+    }
+
+    /**
+     * Finds the char whose glyph's shape is closest to a sub-image's shape, among the chars of about the
+     * sub-image's brightness.
+     *
+     * @param brightness the normalized brightness of the sub-image.
+     * @param shapeMask  the shape of the sub-image.
+     * @return the best matching char.
+     */
+    char getClosestChar(double brightness, long shapeMask) {
+        int size = this.shapeMasks.length;
+        int above = this.brightnessMap.findFirstNotBelow(brightness);
+        int below = above - 1;
+        char closestChar = 0;
+        int closestDistance = Integer.MAX_VALUE;
+        for (int candidate = 0; candidate < MAX_CANDIDATES && closestDistance > 0; candidate++) {
+            // visit the chars from the closest in brightness outwards
+            int index;
+            if (below < 0 && above >= size) {
+                break;
+            } else if (below < 0 || (above < size &&
+                    this.brightnesses[above] - brightness <= brightness - this.brightnesses[below])) {
+                index = above++;
+            } else {
+                index = below--;
+            }
+            if (candidate > 0 && Math.abs(this.brightnesses[index] - brightness) > BRIGHTNESS_TOLERANCE) {
+                break;
+            }
+
+            int distance = Long.bitCount(shapeMask ^ this.shapeMasks[index]);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closestChar = this.brightnessMap.getCharAt(index);
+            }
+        }
+        return closestChar;
+    }
+
+    /**
+     * Builds the shape of a glyph from its bitmap (see CharConverter.convertToBitmap()), whose set pixels are
+     * the bright ones.
+     *
+     * @param bitmap the glyph's bitmap.
+     * @return the shape of the glyph.
+     */
+    private static long getGlyphShapeMask(long[] bitmap) {
+        int resolution = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+        int blockSize = resolution / SubImgCharMatcher.SHAPE_MASK_SIZE;
+        int[] blockCounts = new int[MASK_BITS];
+        int totalCount = 0;
+        for (int y = 0; y < resolution; y++) {
+            for (int x = 0; x < resolution; x++) {
+                if (CharConverter.isPixelSet(bitmap, y * resolution + x)) {
+                    blockCounts[(y / blockSize) * SubImgCharMatcher.SHAPE_MASK_SIZE + x / blockSize]++;
+                    totalCount++;
+                }
+            }
+        }
+
+        long shapeMask = 0;
+        for (int block = 0; block < MASK_BITS; block++) {
+            // the block's mean (count / blockSize^2) is at least the glyph's (totalCount / resolution^2)
+            if (blockCounts[block] * MASK_BITS >= totalCount) {
+                shapeMask |= 1L << block;
+            }
+        }
+        return shapeMask;
+    }
+}
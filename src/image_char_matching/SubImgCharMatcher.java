@@ -5,12 +5,57 @@ import ascii_art.RoundType;
 /**
  * a facade for using the CharBrightnessMap and so simplifies handling removal and addition of ascii chars
  * to the set.
+ * <p>
+ * Matching is done through a lookup table that quantizes the brightness range [0, 1] to equal buckets. The
+ * char chosen for a brightness only changes in one direction as the brightness grows, so if both ends of a
+ * bucket are matched with the same char, so is every brightness in between, and the bucket holds that char.
+ * A bucket whose ends are matched with different chars (it contains a point where the match changes) is
+ * marked as mixed, and brightnesses in it are matched by CharBrightnessMap's exact search. Either way the
+ * result is identical to the exact search.
+ * <p>
+ * A charset of n chars has at most n - 1 such points, so the table has at least BUCKETS_PER_CHAR buckets per
+ * char (and MIN_LOOKUP_BUCKETS at least): no matter how large the charset grows, only a small fraction of the
+ * buckets are mixed, and almost every match stays a single table read.
+ * <p>
+ * A table is kept for each round type, and the tables of all round types are built together - with a single
+ * search per bucket bound - lazily, on the first match after the charset has changed. Switching the round
+ * type is then free, and sub-images can be matched under any round type (see getCharByImageBrightness with a
+ * round type). Matching may be done from several threads at once, as long as the charset is not changed
+ * meanwhile.
+ * <p>
+ * Sub-images can also be matched by shape as well as brightness (see getCharByImageShape), through a
+ * GlyphShapeIndex of the glyphs' shapes, which is likewise built lazily after the charset has changed. Shape
+ * matching always picks among the chars closest in brightness, regardless of the round type.
  *
  * @author Or Tarazi, Agam Hershko
  */
 public class SubImgCharMatcher {
+    // bucket numbers are powers of two, so bucket bounds are exact doubles
+    private static final int MIN_LOOKUP_BUCKETS = 4096;
+    private static final int MAX_LOOKUP_BUCKETS = 1 << 20;
+    private static final int BUCKETS_PER_CHAR = 16;
+    private static final int MIXED_BUCKET = -1; // a bucket whose brightnesses are matched with several chars
+
+    /**
+     * The result of getCharByImageBrightnessRange for a range whose brightnesses are matched with several
+     * chars.
+     */
+    public static final int MIXED_RANGE = MIXED_BUCKET;
+    private static final double MIN_BRIGHTNESS = 0;
+    private static final double MAX_BRIGHTNESS = 1;
+    private static final RoundType[] ROUND_TYPES = RoundType.values();
+
+    /**
+     * The number of blocks along each side of a shape mask (see getShapeMask).
+     */
+    public static final int SHAPE_MASK_SIZE = 8;
+    private static final int SHAPE_MASK_BITS = SHAPE_MASK_SIZE * SHAPE_MASK_SIZE;
+    private static final int SIGN_BIT = Long.SIZE - 1;
+
     private final CharBrightnessMap brightnessMap;
     private RoundType roundType;
+    private volatile int[][] lookupTables; // by round type's ordinal, null when out of date
+    private volatile GlyphShapeIndex shapeIndex; // null when out of date
 
     /**
      * constructor for the matcher
@@ -19,10 +64,7 @@ public class SubImgCharMatcher {
      */
     public SubImgCharMatcher(char[] charset) {
         this.brightnessMap = new CharBrightnessMap();
-
-        for (char c : charset) {
-            this.addChar(c);
-        }
+        this.brightnessMap.addChars(charset);
     }
 
     /**
@@ -36,7 +78,153 @@ public class SubImgCharMatcher {
      * the sub-image in the final ascii art.
      */
     public char getCharByImageBrightness(double brightness) {
-        return this.brightnessMap.getCharByNormalizedBrightness(brightness, this.roundType);
+        return this.getCharByImageBrightness(brightness, this.roundType);
+    }
+
+    /**
+     * searches for the best matching char for the given brightness under the given round type, regardless of
+     * the matcher's own round type.
+     *
+     * @param brightness calculated brightness of a sub-image.
+     * @param roundType  the rounding type to match by.
+     * @return best matching ascii char for the given brightness value under the round type.
+     */
+    public char getCharByImageBrightness(double brightness, RoundType roundType) {
+        if (!(brightness >= MIN_BRIGHTNESS && brightness <= MAX_BRIGHTNESS)) { // also catches NaN
+            return this.brightnessMap.getCharByNormalizedBrightness(brightness, roundType);
+        }
+
+        int[][] tables = this.lookupTables;
+        if (tables == null) {
+            tables = this.buildLookupTables();
+        }
+        int[] table = tables[roundType.ordinal()];
+        int tableChar = table[getBucket(brightness, table.length)];
+        if (tableChar == MIXED_BUCKET) {
+            return this.brightnessMap.getCharByNormalizedBrightness(brightness, roundType);
+        }
+        return (char) tableChar;
+    }
+
+    /**
+     * Finds the char that every brightness in a range is matched with under a round type, if there is one.
+     * The matched char only changes in one direction as the brightness grows, so that is the case exactly
+     * when both ends of the range are matched with the same char.
+     *
+     * @param minBrightness the lowest brightness of the range.
+     * @param maxBrightness the highest brightness of the range.
+     * @param roundType     the rounding type to match by.
+     * @return the char every brightness in the range is matched with, or MIXED_RANGE if there is none.
+     */
+    public int getCharByImageBrightnessRange(double minBrightness, double maxBrightness,
+                                             RoundType roundType) {
+        char minChar = this.getCharByImageBrightness(minBrightness, roundType);
+        char maxChar = this.getCharByImageBrightness(maxBrightness, roundType);
+        return minChar == maxChar ? minChar : MIXED_RANGE;
+    }
+
+    /**
+     * Builds the lookup tables of all round types for the current charset, unless another thread has just
+     * built them, and publishes them for the following matches.
+     *
+     * @return the up-to-date lookup tables, by round type's ordinal.
+     */
+    private synchronized int[][] buildLookupTables() {
+        int[][] tables = this.lookupTables;
+        if (tables != null) {
+            return tables;
+        }
+
+        int bucketsNumber = getBucketsNumber(this.brightnessMap.getSize());
+        tables = new int[ROUND_TYPES.length][bucketsNumber];
+        char[] bucketStartChars = new char[ROUND_TYPES.length];
+        char[] bucketEndChars = new char[ROUND_TYPES.length];
+        this.brightnessMap.getCharsByNormalizedBrightness(MIN_BRIGHTNESS, bucketStartChars);
+        for (int bucket = 0; bucket < bucketsNumber; bucket++) {
+            double bucketEnd = (double) (bucket + 1) / bucketsNumber;
+            this.brightnessMap.getCharsByNormalizedBrightness(bucketEnd, bucketEndChars);
+            for (int round = 0; round < ROUND_TYPES.length; round++) {
+                tables[round][bucket] = bucketStartChars[round] == bucketEndChars[round] ?
+                        bucketStartChars[round] : MIXED_BUCKET;
+            }
+            // the end of a bucket is the start of the next one
+            char[] chars = bucketStartChars;
+            bucketStartChars = bucketEndChars;
+            bucketEndChars = chars;
+        }
+
+        this.lookupTables = tables;
+        return tables;
+    }
+
+    /**
+     * Matches a sub-image with the char whose glyph is closest to it in shape, among the chars closest to it
+     * in brightness.
+     *
+     * @param brightness calculated brightness of a sub-image.
+     * @param shapeMask  the shape of the sub-image, as built by getShapeMask.
+     * @return best matching ascii char for the sub-image's brightness and shape.
+     */
+    public char getCharByImageShape(double brightness, long shapeMask) {
+        GlyphShapeIndex index = this.shapeIndex;
+        if (index == null) {
+            index = this.buildShapeIndex();
+        }
+        return index.getClosestChar(brightness, shapeMask);
+    }
+
+    /**
+     * Builds the shape mask of a sub-image: the sub-image is divided to SHAPE_MASK_SIZE x SHAPE_MASK_SIZE
+     * equal blocks, and the bit of each block (row by row, from the lowest bit) is set if the block is at
+     * least as bright as the whole sub-image.
+     *
+     * @param blockSums the grayscale sums (or brightnesses) of the sub-image's blocks, row by row.
+     * @return the shape mask of the sub-image.
+     */
+    public static long getShapeMask(double[] blockSums) {
+        double totalSum = 0;
+        for (int block = 0; block < SHAPE_MASK_BITS; block++) {
+            totalSum += blockSums[block];
+        }
+
+        long shapeMask = 0;
+        for (int block = 0; block < SHAPE_MASK_BITS; block++) {
+            // the block's mean is at least the total's exactly when the difference's sign bit is clear - a
+            // branch would be mispredicted for about half the blocks of a textured sub-image
+            long difference = Double.doubleToRawLongBits(blockSums[block] * SHAPE_MASK_BITS - totalSum);
+            shapeMask |= (~difference >>> SIGN_BIT) << block;
+        }
+        return shapeMask;
+    }
+
+    /**
+     * Builds the shape index for the current charset, unless another thread has just built it, and
+     * publishes it for the following matches.
+     *
+     * @return the up-to-date shape index.
+     */
+    private synchronized GlyphShapeIndex buildShapeIndex() {
+        GlyphShapeIndex index = this.shapeIndex;
+        if (index == null) {
+            index = new GlyphShapeIndex(this.brightnessMap);
+            this.shapeIndex = index;
+        }
+        return index;
+    }
+
+    // The number of lookup table buckets for a charset: BUCKETS_PER_CHAR per char, up to a power of two
+    private static int getBucketsNumber(int charsNumber) {
+        long minBuckets = (long) charsNumber * BUCKETS_PER_CHAR;
+        int bucketsNumber = MIN_LOOKUP_BUCKETS;
+        while (bucketsNumber < minBuckets && bucketsNumber < MAX_LOOKUP_BUCKETS) {
+            bucketsNumber <<= 1;
+        }
+        return bucketsNumber;
+    }
+
+    // Finds the bucket of a brightness between 0 and 1 (the last bucket includes 1 itself)
+    private static int getBucket(double brightness, int bucketsNumber) {
+        return Math.min(bucketsNumber - 1, (int) (brightness * bucketsNumber));
     }
 
     /**
@@ -46,6 +234,8 @@ public class SubImgCharMatcher {
      */
     public void addChar(char c) {
         this.brightnessMap.addChar(c);
+        this.lookupTables = null;
+        this.shapeIndex = null;
     }
 
     /**
@@ -55,6 +245,43 @@ public class SubImgCharMatcher {
      */
     public void removeChar(char c) {
         this.brightnessMap.removeChar(c);
+        this.lookupTables = null;
+        this.shapeIndex = null;
+    }
+
+    /**
+     * adds several chars to the ascii char set at once, rendering their glyphs together. CharBrightnessMap
+     * class handles the adding operation.
+     *
+     * @param chars chars to be added to ascii set (chars already in the set are ignored)
+     */
+    public void addChars(char[] chars) {
+        this.brightnessMap.addChars(chars);
+        this.lookupTables = null;
+        this.shapeIndex = null;
+    }
+
+    /**
+     * removes several chars from the ascii char set at once. CharBrightnessMap class handles the removal
+     * operation.
+     *
+     * @param chars chars to be removed (chars not in the set are ignored)
+     */
+    public void removeChars(char[] chars) {
+        this.brightnessMap.removeChars(chars);
+        this.lookupTables = null;
+        this.shapeIndex = null;
+    }
+
+    /**
+     * replaces the ascii char set with the given chars. Chars that stay in the set are not rendered again.
+     *
+     * @param charset the chars of the new ascii set
+     */
+    public void replaceCharset(char[] charset) {
+        this.brightnessMap.replaceCharset(charset);
+        this.lookupTables = null;
+        this.shapeIndex = null;
     }
 
     /**
@@ -89,6 +316,15 @@ public class SubImgCharMatcher {
      * @param roundType The rounding type to be set.
      */
     public void setRoundType(RoundType roundType) {
-        this.roundType = roundType;
+        this.roundType = roundType; // the lookup tables of all round types are already built
+    }
+
+    /**
+     * Returns the rounding type of the current object.
+     *
+     * @return the current rounding type.
+     */
+    public RoundType getRoundType() {
+        return this.roundType;
     }
 }
\ No newline at end of file